@@ -0,0 +1,95 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.css.SourceCode;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of css group compilation with closure-stylesheets
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class CssCompileBenchmark
+{
+    @Param( {"1000", "10000"} )
+    private int rules;
+
+    @Param( {"1", "4"} )
+    private int files;
+
+    private List<SourceCode> sources;
+
+    private ClosureCssEngine engine;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        File directory = Files.createTempDir();
+        try
+        {
+            sources = new ArrayList<>();
+            for ( int i = 0; i < files; i++ )
+            {
+                File stylesheet = new File( directory, "style-" + i + ".css" );
+                SyntheticAssets.writeStylesheet( stylesheet, rules / files, Collections.<File>emptyList() );
+                sources.add( new SourceCode( stylesheet.getName(), Files.toString( stylesheet, Charsets.UTF_8 ) ) );
+            }
+        }
+        finally
+        {
+            SyntheticAssets.delete( directory );
+        }
+
+        engine = new ClosureCssEngine();
+    }
+
+    @Benchmark
+    public String compile() throws IOException
+    {
+        return engine.compile( sources );
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of inlining images into css as base64 data URIs, with and without data URI cache
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class ImageInliningBenchmark
+{
+    @Param( {"10", "100"} )
+    private int imageCount;
+
+    @Param( {"1024", "32768"} )
+    private int imageSize;
+
+    @Param( {"false", "true"} )
+    private boolean cached;
+
+    private File directory;
+
+    private List<File> images;
+
+    private ImageInliner inliner;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDir();
+        images = SyntheticAssets.writeImages( directory, imageCount, imageSize );
+        inliner = new ImageInliner( 0, new DataUriCache( cached ? Long.MAX_VALUE : 0 ) );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        SyntheticAssets.delete( directory );
+    }
+
+    @Benchmark
+    public StringBuilder inline() throws IOException
+    {
+        StringBuilder output = new StringBuilder();
+        for ( File image : images )
+        {
+            inliner.inline( image, output );
+        }
+
+        return output;
+    }
+}
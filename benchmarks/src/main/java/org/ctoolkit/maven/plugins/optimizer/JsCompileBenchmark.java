@@ -0,0 +1,110 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.io.Files;
+import com.google.javascript.jscomp.CompilationLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of java-script group compilation with closure compiler, with and without closure library
+ * dependencies resolved the same way as optimizer resolves them
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class JsCompileBenchmark
+{
+    @Param( {"100", "1000"} )
+    private int functions;
+
+    @Param( {"false", "true"} )
+    private boolean closureLibrary;
+
+    @Param( {"SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS"} )
+    private CompilationLevel level;
+
+    private File directory;
+
+    private List<String> inputs;
+
+    private ClosureJsEngine engine;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDir();
+        File script = new File( directory, "scripts/script.js" );
+        SyntheticAssets.writeJavascript( script, functions, closureLibrary );
+
+        inputs = new ArrayList<>();
+        if ( closureLibrary )
+        {
+            String closureRoot = SyntheticAssets.getClosureRoot( new File( directory, "closure" ) ).getAbsolutePath();
+            inputs.addAll( ClosureDependencyIndex.getInstance( closureRoot ).getDependencies( Collections.singletonList( script.getAbsolutePath() ) ) );
+        }
+        inputs.add( script.getAbsolutePath() );
+
+        // engine is shared by all groups of a build, so its source and externs cache is warm in measurements too
+        engine = new ClosureJsEngine();
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        SyntheticAssets.delete( directory );
+    }
+
+    @Benchmark
+    public String compile() throws IOException
+    {
+        ClosureJsEngine.Output output = engine.compile( inputs, level );
+        if ( !output.isSuccess() )
+        {
+            throw new IllegalStateException( "Compilation failed: " + output.getErrors() );
+        }
+
+        return output.getSource();
+    }
+}
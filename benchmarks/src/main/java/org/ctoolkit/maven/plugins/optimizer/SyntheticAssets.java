@@ -0,0 +1,303 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Generator of synthetic web assets used by benchmarks.</p>
+ * <p>Images, stylesheets and java-scripts are generated from fixed seed, so the same parameters always produce
+ * the same files and benchmark results can be reproduced offline. Assets can be generated from command line as
+ * well:</p>
+ * <pre>
+ * java -cp benchmarks.jar org.ctoolkit.maven.plugins.optimizer.SyntheticAssets &lt;dir&gt; &lt;images&gt; &lt;imageSize&gt; &lt;rules&gt; &lt;functions&gt;
+ * </pre>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class SyntheticAssets
+{
+    private static final long SEED = 20151027L;
+
+    private static final byte[] PNG_SIGNATURE = {( byte ) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a};
+
+    /**
+     * Closure library namespaces used by generated java-script
+     */
+    private static final String[] CLOSURE_NAMESPACES = {"goog.array", "goog.string", "goog.dom", "goog.object"};
+
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 5 )
+        {
+            System.out.println( "Usage: SyntheticAssets <dir> <images> <imageSize> <rules> <functions>" );
+            return;
+        }
+
+        File dir = new File( args[0] );
+        List<File> images = writeImages( new File( dir, "images" ), Integer.parseInt( args[1] ), Integer.parseInt( args[2] ) );
+        writeStylesheet( new File( dir, "styles/style.css" ), Integer.parseInt( args[3] ), images );
+        writeJavascript( new File( dir, "scripts/script.js" ), Integer.parseInt( args[4] ), false );
+        writeJavascript( new File( dir, "scripts/closure.js" ), Integer.parseInt( args[4] ), true );
+    }
+
+    /**
+     * Write PNG images. Every image is valid 1x1 PNG padded with private ancillary chunk of random bytes to
+     * requested size.
+     *
+     * @param dir   directory of images
+     * @param count number of images
+     * @param size  size of every image in bytes
+     * @return written images
+     * @throws IOException if image could not be written
+     */
+    public static List<File> writeImages( File dir, int count, int size ) throws IOException
+    {
+        dir.mkdirs();
+        Random random = new Random( SEED );
+        List<File> images = new ArrayList<>();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            ByteArrayOutputStream png = new ByteArrayOutputStream( size );
+            DataOutputStream out = new DataOutputStream( png );
+            out.write( PNG_SIGNATURE );
+
+            // 1x1 RGBA image
+            writeChunk( out, "IHDR", new byte[]{0, 0, 0, 1, 0, 0, 0, 1, 8, 6, 0, 0, 0} );
+
+            byte[] pixel = {0, ( byte ) random.nextInt( 256 ), ( byte ) random.nextInt( 256 ), ( byte ) random.nextInt( 256 ), ( byte ) 0xff};
+            Deflater deflater = new Deflater();
+            deflater.setInput( pixel );
+            deflater.finish();
+            byte[] idat = new byte[64];
+            int length = deflater.deflate( idat );
+            deflater.end();
+
+            byte[] data = new byte[length];
+            System.arraycopy( idat, 0, data, 0, length );
+
+            // header, IHDR, IDAT and IEND chunks take 12 bytes each plus their data
+            int padding = Math.max( 0, size - png.size() - ( 12 + length ) - 12 - 12 );
+            byte[] noise = new byte[padding];
+            random.nextBytes( noise );
+            writeChunk( out, "rnDm", noise );
+
+            writeChunk( out, "IDAT", data );
+            writeChunk( out, "IEND", new byte[0] );
+            out.flush();
+
+            File image = new File( dir, "image-" + i + ".png" );
+            Files.write( png.toByteArray(), image );
+            images.add( image );
+        }
+
+        return images;
+    }
+
+    /**
+     * Write stylesheet with given number of rules. Every other rule references one of images, quoted and
+     * unquoted <code>url()</code> alternate.
+     *
+     * @param file   stylesheet file
+     * @param rules  number of rules
+     * @param images images referenced by stylesheet
+     * @throws IOException if stylesheet could not be written
+     */
+    public static void writeStylesheet( File file, int rules, List<File> images ) throws IOException
+    {
+        Random random = new Random( SEED );
+        StringBuilder css = new StringBuilder( rules * 120 );
+
+        for ( int i = 0; i < rules; i++ )
+        {
+            css.append( ".rule-" ).append( i ).append( " .child, #id-" ).append( i ).append( " {\n" )
+                    .append( "    margin: " ).append( random.nextInt( 20 ) ).append( "px " ).append( random.nextInt( 20 ) ).append( "px;\n" )
+                    .append( "    color: #" ).append( Integer.toHexString( 0x100000 + random.nextInt( 0xefffff ) ) ).append( ";\n" );
+
+            if ( !images.isEmpty() && i % 2 == 0 )
+            {
+                String path = relativePath( file.getParentFile(), images.get( random.nextInt( images.size() ) ) );
+                css.append( i % 4 == 0 ? "    background: url(\"" + path + "\") 0 0 no-repeat;\n" : "    background-image: url(" + path + ");\n" );
+            }
+
+            css.append( "}\n\n" );
+        }
+
+        file.getParentFile().mkdirs();
+        Files.write( css, file, Charsets.UTF_8 );
+    }
+
+    /**
+     * Write java-script with given number of functions
+     *
+     * @param file      java-script file
+     * @param functions number of functions
+     * @param closure   <code>true</code> to require and use closure library namespaces
+     * @throws IOException if java-script could not be written
+     */
+    public static void writeJavascript( File file, int functions, boolean closure ) throws IOException
+    {
+        Random random = new Random( SEED );
+        StringBuilder js = new StringBuilder( functions * 200 );
+
+        if ( closure )
+        {
+            for ( String namespace : CLOSURE_NAMESPACES )
+            {
+                js.append( "goog.require('" ).append( namespace ).append( "');\n" );
+            }
+            js.append( "\n" );
+        }
+
+        for ( int i = 0; i < functions; i++ )
+        {
+            js.append( "function fn" ).append( i ).append( "(items, factor) {\n" )
+                    .append( "    var result = [];\n" )
+                    .append( "    for (var i = 0; i < items.length; i++) {\n" )
+                    .append( "        result.push(items[i] * factor + " ).append( random.nextInt( 1000 ) ).append( ");\n" )
+                    .append( "    }\n" );
+
+            if ( closure )
+            {
+                js.append( "    result = goog.array.filter(result, function(x) { return x % " ).append( 2 + random.nextInt( 5 ) ).append( " != 0; });\n" )
+                        .append( "    return goog.string.trim(' ' + result.join(',') + ' ');\n" );
+            }
+            else
+            {
+                js.append( "    return result.join(',');\n" );
+            }
+            js.append( "}\n\n" );
+        }
+
+        // keep functions alive in advanced optimizations
+        js.append( "window['bench'] = [" );
+        for ( int i = 0; i < functions; i++ )
+        {
+            js.append( i > 0 ? ", " : "" ).append( "fn" ).append( i );
+        }
+        js.append( "];\n" );
+
+        file.getParentFile().mkdirs();
+        Files.write( js, file, Charsets.UTF_8 );
+    }
+
+    /**
+     * Return closure library root directory (directory of <code>base.js</code>). If the plugin is packaged as jar,
+     * bundled closure library is extracted to target directory first.
+     *
+     * @param target directory to extract closure library to
+     * @return closure library root directory
+     * @throws IOException if closure library could not be extracted
+     */
+    public static File getClosureRoot( File target ) throws IOException
+    {
+        String prefix = "org/ctoolkit/maven/plugins/optimizer/gc_closure/";
+        URL base = SyntheticAssets.class.getResource( "/" + prefix + "goog/base.js" );
+        if ( base == null )
+        {
+            throw new IOException( "Closure library not found on class path" );
+        }
+
+        if ( "file".equals( base.getProtocol() ) )
+        {
+            return new File( base.getPath() ).getParentFile();
+        }
+
+        JarURLConnection connection = ( JarURLConnection ) base.openConnection();
+        connection.setUseCaches( false );
+        try ( JarFile jar = connection.getJarFile() )
+        {
+            Enumeration<JarEntry> entries = jar.entries();
+            while ( entries.hasMoreElements() )
+            {
+                JarEntry entry = entries.nextElement();
+                if ( entry.getName().startsWith( prefix ) && !entry.isDirectory() )
+                {
+                    File file = new File( target, entry.getName().substring( prefix.length() ) );
+                    file.getParentFile().mkdirs();
+
+                    try ( InputStream in = jar.getInputStream( entry ) )
+                    {
+                        Files.write( ByteStreams.toByteArray( in ), file );
+                    }
+                }
+            }
+        }
+
+        return new File( target, "goog" );
+    }
+
+    /**
+     * Delete generated assets
+     *
+     * @param file file or directory to delete recursively
+     */
+    public static void delete( File file )
+    {
+        File[] files = file.listFiles();
+        if ( files != null )
+        {
+            for ( File child : files )
+            {
+                delete( child );
+            }
+        }
+
+        file.delete();
+    }
+
+    private static void writeChunk( DataOutputStream out, String type, byte[] data ) throws IOException
+    {
+        byte[] typeBytes = type.getBytes( Charsets.US_ASCII );
+
+        CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( data );
+
+        out.writeInt( data.length );
+        out.write( typeBytes );
+        out.write( data );
+        out.writeInt( ( int ) crc.getValue() );
+    }
+
+    private static String relativePath( File from, File to )
+    {
+        return from.toPath().relativize( to.toPath() ).toString().replace( File.separatorChar, '/' );
+    }
+}
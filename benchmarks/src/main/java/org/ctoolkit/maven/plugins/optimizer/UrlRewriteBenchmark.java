@@ -0,0 +1,105 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of <code>url()</code> scanning and rewriting of large stylesheets. Images are inlined with data URI
+ * cache turned on, so rewriting itself rather than image encoding is measured.
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class UrlRewriteBenchmark
+{
+    @Param( {"1000", "10000"} )
+    private int rules;
+
+    private File directory;
+
+    private File stylesheet;
+
+    private String css;
+
+    private OptimizerContext context;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDir();
+        stylesheet = new File( directory, "styles/style.css" );
+        SyntheticAssets.writeStylesheet( stylesheet, rules, SyntheticAssets.writeImages( new File( directory, "images" ), 20, 512 ) );
+        css = Files.toString( stylesheet, Charsets.UTF_8 );
+
+        context = new OptimizerContext( new BuildCache( null ), 1 );
+        context.setImageInliner( new ImageInliner( 0, new DataUriCache( Long.MAX_VALUE ) ) );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        context.shutdown();
+        SyntheticAssets.delete( directory );
+    }
+
+    @Benchmark
+    public int scan()
+    {
+        CssUrlScanner scanner = new CssUrlScanner( css );
+
+        int count = 0;
+        while ( scanner.find() )
+        {
+            count += scanner.value().length();
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    public String rewrite() throws IOException
+    {
+        return CssOptimizer.encodeImages( stylesheet, css, context, new OptimizerReport().newGroup( "css", "benchmark" ) );
+    }
+}
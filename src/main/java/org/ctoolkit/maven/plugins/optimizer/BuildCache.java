@@ -0,0 +1,512 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Persistent content-addressed cache of optimized group outputs.</p>
+ * <p>Every group output is stored under a key computed from the content of all its inputs, the group configuration,
+ * the compiler flags, the plugin version and the hash of plugin classes (so a rebuilt snapshot of the plugin does not
+ * reuse outputs of its previous build). Input files are keyed by their path relative to project base directory, so
+ * the same project checked out in different workspaces or CI agents shares entries. The cache directory is meant to
+ * live outside of the <code>target</code> directory, so it survives <code>mvn clean</code>.
+ * Outputs are kept in {@link SessionCache} as well, so modules of one build reuse them from memory, even if cache
+ * directory is not set.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class BuildCache
+{
+    private static Logger log = Logger.getLogger( BuildCache.class.getName() );
+
+    /**
+     * Plugin version, part of every cache key
+     */
+    private static final String PLUGIN_VERSION = loadPluginVersion();
+
+    /**
+     * Hash of plugin classes, part of every cache key
+     */
+    private static final String PLUGIN_HASH = loadPluginHash();
+
+    /**
+     * Cache root directory, <code>null</code> if cache is disabled
+     */
+    private final File directory;
+
+    private final SessionCache session;
+
+    /**
+     * Project base directory input files are keyed relative to, <code>null</code> to key them by absolute path
+     */
+    private final File baseDir;
+
+    /**
+     * Create build cache which does not share outputs with other executions
+     *
+     * @param cacheDirectory path to cache directory, if empty cache is disabled
+     */
+    public BuildCache( String cacheDirectory )
+    {
+        this( cacheDirectory, new SessionCache() );
+    }
+
+    /**
+     * Create build cache
+     *
+     * @param cacheDirectory path to cache directory, if empty persistent cache is disabled
+     * @param session        session cache shared by all executions of maven session
+     */
+    public BuildCache( String cacheDirectory, SessionCache session )
+    {
+        this( cacheDirectory, session, null );
+    }
+
+    /**
+     * Create build cache
+     *
+     * @param cacheDirectory path to cache directory, if empty persistent cache is disabled
+     * @param session        session cache shared by all executions of maven session
+     * @param baseDir        project base directory input files are keyed relative to
+     */
+    public BuildCache( String cacheDirectory, SessionCache session, File baseDir )
+    {
+        this.session = session;
+        this.baseDir = baseDir;
+
+        if ( cacheDirectory == null || cacheDirectory.trim().isEmpty() )
+        {
+            this.directory = null;
+        }
+        else
+        {
+            this.directory = new File( cacheDirectory );
+        }
+    }
+
+    public SessionCache getSession()
+    {
+        return session;
+    }
+
+    /**
+     * Return <code>true</code> if cache directory is set
+     *
+     * @return <code>true</code> if cache is enabled
+     */
+    public boolean isEnabled()
+    {
+        return directory != null;
+    }
+
+    /**
+     * Create new cache key
+     *
+     * @param kind kind of cached output - <code>css</code>, <code>js</code> or <code>image</code>
+     * @return new cache key
+     */
+    public Key newKey( String kind )
+    {
+        return new Key( kind, session, baseDir );
+    }
+
+    /**
+     * Return cached output for given key
+     *
+     * @param key cache key
+     * @return cached output or <code>null</code> if there is no cached output for key
+     */
+    public String get( Key key )
+    {
+        String output = session.getOutput( key.toString() );
+        if ( output != null || !isEnabled() )
+        {
+            return output;
+        }
+
+        File file = getFile( key );
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+
+        try
+        {
+            output = Files.toString( file, Charsets.UTF_8 );
+            session.putOutput( key.toString(), output );
+            return output;
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to read cache entry '" + file.getAbsolutePath() + "'", e );
+            return null;
+        }
+    }
+
+    /**
+     * Store output under given key. Entry is written to temporary file first and moved atomically into place, so
+     * concurrent builds sharing the same cache directory never see partially written entry.
+     *
+     * @param key     cache key
+     * @param content output to store
+     */
+    public void put( Key key, String content )
+    {
+        session.putOutput( key.toString(), content );
+
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        write( key, content.getBytes( Charsets.UTF_8 ) );
+    }
+
+    /**
+     * Return cached binary output for given key. Binary outputs (e.g. optimized images) are kept in cache directory
+     * only.
+     *
+     * @param key cache key
+     * @return cached output or <code>null</code> if cache is disabled or there is no cached output for key
+     */
+    public byte[] getBytes( Key key )
+    {
+        if ( !isEnabled() )
+        {
+            return null;
+        }
+
+        File file = getFile( key );
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+
+        try
+        {
+            return Files.toByteArray( file );
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to read cache entry '" + file.getAbsolutePath() + "'", e );
+            return null;
+        }
+    }
+
+    /**
+     * Store binary output under given key, nothing is stored if cache is disabled
+     *
+     * @param key     cache key
+     * @param content output to store
+     */
+    public void putBytes( Key key, byte[] content )
+    {
+        if ( isEnabled() )
+        {
+            write( key, content );
+        }
+    }
+
+    /**
+     * Write entry to temporary file and move it atomically into place
+     *
+     * @param key     cache key
+     * @param content content of entry
+     */
+    private void write( Key key, byte[] content )
+    {
+        File file = getFile( key );
+        try
+        {
+            File parent = file.getParentFile();
+            if ( !parent.mkdirs() && !parent.isDirectory() )
+            {
+                throw new IOException( "Unable to create cache directory: " + parent.getAbsolutePath() );
+            }
+
+            File tempFile = File.createTempFile( key.getValue(), ".tmp", parent );
+            Files.write( content, tempFile );
+            java.nio.file.Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to write cache entry '" + file.getAbsolutePath() + "'", e );
+        }
+    }
+
+    private File getFile( Key key )
+    {
+        return new File( new File( directory, key.getKind() ), key.getValue().substring( 0, 2 ) + File.separator + key.getValue() );
+    }
+
+    /**
+     * Return plugin version
+     *
+     * @return plugin version
+     */
+    public static String getPluginVersion()
+    {
+        return PLUGIN_VERSION;
+    }
+
+    /**
+     * Return hash of plugin classes
+     *
+     * @return hex hash of plugin classes or <code>unknown</code> if plugin classes could not be read
+     */
+    public static String getPluginHash()
+    {
+        return PLUGIN_HASH;
+    }
+
+    /**
+     * Load plugin version from filtered <code>optimizer.properties</code>
+     *
+     * @return plugin version
+     */
+    private static String loadPluginVersion()
+    {
+        Properties properties = new Properties();
+        try ( InputStream stream = BuildCache.class.getResourceAsStream( "optimizer.properties" ) )
+        {
+            if ( stream != null )
+            {
+                properties.load( stream );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to load plugin version", e );
+        }
+
+        return properties.getProperty( "version", "unknown" );
+    }
+
+    /**
+     * Return hash of plugin classes - content of plugin jar or of class files if plugin runs from classes directory
+     *
+     * @return hex hash of plugin classes or <code>unknown</code> if plugin classes could not be read
+     */
+    private static String loadPluginHash()
+    {
+        try
+        {
+            CodeSource source = BuildCache.class.getProtectionDomain().getCodeSource();
+            if ( source == null || source.getLocation() == null )
+            {
+                return "unknown";
+            }
+
+            File location = new File( source.getLocation().toURI() );
+            if ( location.isFile() )
+            {
+                return Files.hash( location, Hashing.sha256() ).toString();
+            }
+
+            Hasher hasher = Hashing.sha256().newHasher();
+            hashClasses( location, "", hasher );
+            return hasher.hash().toString();
+        }
+        catch ( IOException | URISyntaxException | IllegalArgumentException | SecurityException e )
+        {
+            log.log( Level.WARNING, "Unable to hash plugin classes", e );
+            return "unknown";
+        }
+    }
+
+    /**
+     * Add relative paths and content of class files of directory to hash, in name order
+     *
+     * @param directory directory of class files
+     * @param path      path of directory relative to classes root
+     * @param hasher    hasher to add class files to
+     * @throws IOException if class file could not be read
+     */
+    private static void hashClasses( File directory, String path, Hasher hasher ) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        Arrays.sort( files );
+        for ( File file : files )
+        {
+            String name = path + file.getName();
+            if ( file.isDirectory() )
+            {
+                hashClasses( file, name + "/", hasher );
+            }
+            else if ( name.endsWith( ".class" ) )
+            {
+                hasher.putString( name, Charsets.UTF_8 );
+                hasher.putBytes( Files.toByteArray( file ) );
+            }
+        }
+    }
+
+    /**
+     * Cache key - SHA-256 hash of all inputs of one group
+     */
+    public static class Key
+    {
+        private final String kind;
+
+        private final SessionCache session;
+
+        private final File baseDir;
+
+        private final Hasher hasher = Hashing.sha256().newHasher();
+
+        private String value;
+
+        private Key( String kind, SessionCache session, File baseDir )
+        {
+            this.kind = kind;
+            this.session = session;
+            this.baseDir = baseDir;
+
+            putString( PLUGIN_VERSION );
+            putString( PLUGIN_HASH );
+            putString( kind );
+        }
+
+        /**
+         * Add string to key
+         *
+         * @param string string to add
+         * @return this key
+         */
+        public Key putString( String string )
+        {
+            checkNotHashed();
+
+            hasher.putInt( string.length() );
+            hasher.putString( string, Charsets.UTF_8 );
+            return this;
+        }
+
+        /**
+         * Add bytes to key
+         *
+         * @param bytes bytes to add
+         * @return this key
+         */
+        public Key putBytes( byte[] bytes )
+        {
+            checkNotHashed();
+
+            hasher.putInt( bytes.length );
+            hasher.putBytes( bytes );
+            return this;
+        }
+
+        /**
+         * Add file path and content to key. Hash of file content is shared by session. File inside of project base
+         * directory is keyed by its relative path, file outside of it (e.g. bundled closure library) by its name
+         * only, so key does not depend on location of workspace.
+         *
+         * @param file file to add
+         * @return this key
+         * @throws IOException if file could not be read
+         */
+        public Key putFile( File file ) throws IOException
+        {
+            putString( getPath( file ) );
+            hasher.putBytes( session.getHash( file ) );
+            return this;
+        }
+
+        /**
+         * Return path of file as it is added to key
+         *
+         * @param file file
+         * @return path relative to project base directory, name of file outside of it or absolute path if base
+         * directory is not set
+         */
+        private String getPath( File file )
+        {
+            if ( baseDir == null )
+            {
+                return file.getAbsolutePath();
+            }
+
+            Path base = baseDir.toPath().toAbsolutePath().normalize();
+            Path path = file.toPath().toAbsolutePath().normalize();
+            if ( path.startsWith( base ) )
+            {
+                return base.relativize( path ).toString().replace( File.separatorChar, '/' );
+            }
+
+            return file.getName();
+        }
+
+        public String getKind()
+        {
+            return kind;
+        }
+
+        /**
+         * Return hex representation of key
+         *
+         * @return hex representation of key
+         */
+        public String getValue()
+        {
+            if ( value == null )
+            {
+                value = hasher.hash().toString();
+            }
+
+            return value;
+        }
+
+        private void checkNotHashed()
+        {
+            if ( value != null )
+            {
+                throw new IllegalStateException( "Cache key has been already computed" );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return kind + ":" + getValue();
+        }
+    }
+}
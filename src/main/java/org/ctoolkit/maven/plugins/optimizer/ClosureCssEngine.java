@@ -0,0 +1,115 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Joiner;
+import com.google.common.css.JobDescription;
+import com.google.common.css.JobDescriptionBuilder;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.BasicErrorManager;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.PassRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Css engine driving closure-stylesheets compiler directly.</p>
+ * <p>Stylesheets are parsed from in-memory {@link SourceCode}s, compiler passes are run on parsed tree and
+ * compacted css is returned as string. Same job settings as closure-stylesheets command line defaults are used.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ClosureCssEngine
+{
+    /**
+     * Compile and compact stylesheets into one css
+     *
+     * @param sources stylesheets to compile
+     * @return compacted css
+     * @throws IOException if stylesheets could not be compiled
+     */
+    public String compile( List<SourceCode> sources ) throws IOException
+    {
+        return compile( sources, true );
+    }
+
+    /**
+     * Compile and compact stylesheets into one css
+     *
+     * @param sources  stylesheets to compile
+     * @param simplify <code>true</code> to run simplification passes (e.g. shorthand properties), compaction only
+     *                 otherwise
+     * @return compacted css
+     * @throws IOException if stylesheets could not be compiled
+     */
+    public String compile( List<SourceCode> sources, boolean simplify ) throws IOException
+    {
+        JobDescription job = new JobDescriptionBuilder()
+                .setInputs( sources )
+                .setOutputFormat( JobDescription.OutputFormat.COMPRESSED )
+                .setSimplifyCss( simplify )
+                .getJobDescription();
+
+        CollectingErrorManager errorManager = new CollectingErrorManager();
+
+        CssTree tree;
+        try
+        {
+            tree = new GssParser( job.inputs ).parse();
+        }
+        catch ( GssParserException e )
+        {
+            throw new IOException( "Css could not be parsed: " + e.getMessage(), e );
+        }
+
+        new PassRunner( job, errorManager ).runPasses( tree );
+
+        if ( errorManager.hasErrors() )
+        {
+            errorManager.generateReport();
+            throw new IOException( "Css compiler failed with errors:\n" + Joiner.on( '\n' ).join( errorManager.messages ) );
+        }
+
+        CompactPrinter printer = new CompactPrinter( tree );
+        printer.runPass();
+
+        return printer.getCompactPrintedString();
+    }
+
+    /**
+     * Error manager which collects report messages instead of printing them
+     */
+    private static class CollectingErrorManager
+            extends BasicErrorManager
+    {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void print( String message )
+        {
+            messages.add( message );
+        }
+    }
+}
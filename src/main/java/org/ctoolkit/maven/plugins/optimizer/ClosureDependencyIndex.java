@@ -0,0 +1,213 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Index of <code>goog.provide</code> and <code>goog.require</code> statements of bundled closure library.</p>
+ * <p>Index is built once per closure root directory and is used to resolve only those closure library files, which
+ * are transitively required by java-script sources of a group. Compiler then gets just the files it really needs
+ * instead of the whole library.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ClosureDependencyIndex
+{
+    private static Logger log = Logger.getLogger( ClosureDependencyIndex.class.getName() );
+
+    /**
+     * Matches <code>goog.provide('ns')</code> and <code>goog.require('ns')</code> calls anywhere in code, e.g.
+     * indented or in <code>var x = goog.require('ns')</code>. Comments and string literals are matched as well, so
+     * calls inside them are skipped - only matches with namespace group are dependencies.
+     */
+    private static final Pattern DEPENDENCY = Pattern.compile( "(?=[/'\"g])(?://[^\\n]*+|/\\*[^*]*+\\*++(?:[^/*][^*]*+\\*++)*+/"
+            + "|'[^'\\\\\\n]*+(?:\\\\.[^'\\\\\\n]*+)*+'|\"[^\"\\\\\\n]*+(?:\\\\.[^\"\\\\\\n]*+)*+\""
+            + "|(?<![\\w$.])goog\\.(provide|require)\\s*\\(\\s*['\"]([\\w.$]+)['\"]\\s*\\))" );
+
+    private static final Map<String, ClosureDependencyIndex> instances = new HashMap<>();
+
+    /**
+     * Absolute path of closure <code>base.js</code>
+     */
+    private final String basePath;
+
+    /**
+     * Closure library file path keyed by namespace it provides
+     */
+    private final Map<String, String> providers = new HashMap<>();
+
+    /**
+     * Namespaces required by closure library file keyed by file path
+     */
+    private final Map<String, List<String>> requires = new HashMap<>();
+
+    private ClosureDependencyIndex( File closureRoot ) throws IOException
+    {
+        this.basePath = new File( closureRoot, "base.js" ).getAbsolutePath();
+
+        long start = System.currentTimeMillis();
+        scan( closureRoot );
+        log.info( "Closure dependency index of " + requires.size() + " files built in " + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+    /**
+     * Return dependency index of closure library. Index is built on first use and shared by all groups.
+     *
+     * @param closureRoot closure library root directory (directory of <code>base.js</code>)
+     * @return dependency index
+     * @throws IOException if closure library could not be scanned
+     */
+    public static synchronized ClosureDependencyIndex getInstance( String closureRoot ) throws IOException
+    {
+        ClosureDependencyIndex index = instances.get( closureRoot );
+        if ( index == null )
+        {
+            index = new ClosureDependencyIndex( new File( closureRoot ) );
+            instances.put( closureRoot, index );
+        }
+
+        return index;
+    }
+
+    /**
+     * Return closure library files transitively required by given java-script sources, <code>base.js</code> first
+     * and every file after files it depends on
+     *
+     * @param sources absolute paths to java-script sources
+     * @return absolute paths to required closure library files
+     * @throws IOException if source could not be read
+     */
+    public List<String> getDependencies( Collection<String> sources ) throws IOException
+    {
+        Set<String> provided = new HashSet<>();
+        List<String> required = new ArrayList<>();
+
+        for ( String source : sources )
+        {
+            Matcher matcher = DEPENDENCY.matcher( Files.toString( new File( source ), Charsets.UTF_8 ) );
+            while ( matcher.find() )
+            {
+                if ( matcher.group( 1 ) == null )
+                {
+                    continue;
+                }
+
+                if ( "provide".equals( matcher.group( 1 ) ) )
+                {
+                    provided.add( matcher.group( 2 ) );
+                }
+                else
+                {
+                    required.add( matcher.group( 2 ) );
+                }
+            }
+        }
+
+        Set<String> dependencies = new LinkedHashSet<>();
+        dependencies.add( basePath );
+
+        Set<String> visited = new HashSet<>();
+        for ( String namespace : required )
+        {
+            // namespaces provided by project sources are not looked up in closure library
+            if ( !provided.contains( namespace ) )
+            {
+                visit( namespace, visited, dependencies );
+            }
+        }
+
+        return new ArrayList<>( dependencies );
+    }
+
+    private void visit( String namespace, Set<String> visited, Set<String> dependencies )
+    {
+        String path = providers.get( namespace );
+        if ( path == null || !visited.add( path ) )
+        {
+            return;
+        }
+
+        for ( String required : requires.get( path ) )
+        {
+            visit( required, visited, dependencies );
+        }
+
+        dependencies.add( path );
+    }
+
+    private void scan( File directory ) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            throw new IOException( "Closure library directory can not be listed: " + directory.getAbsolutePath() );
+        }
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+            if ( file.isDirectory() )
+            {
+                scan( file );
+            }
+            else if ( name.endsWith( ".js" ) && !name.endsWith( "_test.js" ) && !"deps.js".equals( name ) )
+            {
+                String path = file.getAbsolutePath();
+                List<String> fileRequires = new ArrayList<>();
+
+                Matcher matcher = DEPENDENCY.matcher( Files.toString( file, Charsets.UTF_8 ) );
+                while ( matcher.find() )
+                {
+                    if ( matcher.group( 1 ) == null )
+                    {
+                        continue;
+                    }
+
+                    if ( "provide".equals( matcher.group( 1 ) ) )
+                    {
+                        providers.put( matcher.group( 2 ), path );
+                    }
+                    else
+                    {
+                        fileRequires.add( matcher.group( 2 ) );
+                    }
+                }
+
+                requires.put( path, fileRequires );
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.ClosureCodingConvention;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.jscomp.WarningLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Java-script engine driving closure {@link Compiler} directly.</p>
+ * <p>Sources are handed to the compiler as in-memory {@link SourceFile}s and compiled source together with
+ * warnings and errors is returned as {@link Output}, so there is no temporary output file nor any
+ * {@link System#exit(int)} interception. Default externs and content of input files (closure library in
+ * particular) are taken from {@link SessionCache}, so they are loaded only once and reused by every compilation of
+ * all modules of the build.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ClosureJsEngine
+{
+    private final SessionCache session;
+
+    /**
+     * Create engine with its own cache of sources and externs
+     */
+    public ClosureJsEngine()
+    {
+        this( new SessionCache() );
+    }
+
+    /**
+     * Create engine
+     *
+     * @param session session cache of sources and externs
+     */
+    public ClosureJsEngine( SessionCache session )
+    {
+        this.session = session;
+    }
+
+    /**
+     * Compile java-script files
+     *
+     * @param inputPaths absolute paths to java-script files
+     * @param level      compilation level
+     * @return compilation output
+     * @throws IOException if input file could not be read
+     */
+    public Output compile( List<String> inputPaths, CompilationLevel level ) throws IOException
+    {
+        return compileSources( readSources( inputPaths ), level );
+    }
+
+    /**
+     * Compile java-script sources
+     *
+     * @param sources content of java-script files keyed by their path
+     * @param level   compilation level
+     * @return compilation output
+     * @throws IOException if externs could not be loaded
+     */
+    public Output compileSources( Map<String, String> sources, CompilationLevel level ) throws IOException
+    {
+        List<SourceFile> inputs = new ArrayList<>();
+        for ( Map.Entry<String, String> source : sources.entrySet() )
+        {
+            inputs.add( SourceFile.fromCode( source.getKey(), source.getValue() ) );
+        }
+
+        Compiler compiler = new Compiler( new CollectingErrorManager() );
+
+        Result result = compiler.compile( getExterns(), inputs, createOptions( level ) );
+
+        Map<String, String> outputs = new LinkedHashMap<>();
+        if ( result.success )
+        {
+            outputs.put( null, compiler.toSource() );
+        }
+
+        return new Output( outputs, format( result.errors ), format( result.warnings ) );
+    }
+
+    /**
+     * Compile java-script modules in one compilation. The first module is base module, all other modules depend
+     * on it. Code shared by modules is parsed and optimized only once and ends up in base module.
+     *
+     * @param modules map of module name and absolute paths to its java-script files, base module first
+     * @param level   compilation level
+     * @return compilation output with source of every module
+     * @throws IOException if input file could not be read
+     */
+    public Output compileModules( Map<String, List<String>> modules, CompilationLevel level ) throws IOException
+    {
+        return compileModuleSources( readModuleSources( modules ), level );
+    }
+
+    /**
+     * Compile java-script modules given by their sources in one compilation, the first module is base module
+     *
+     * @param modules map of module name and content of its java-script files keyed by their path, base module first
+     * @param level   compilation level
+     * @return compilation output with source of every module
+     * @throws IOException if externs could not be loaded
+     * @see #compileModules(Map, CompilationLevel)
+     */
+    public Output compileModuleSources( Map<String, Map<String, String>> modules, CompilationLevel level )
+            throws IOException
+    {
+        List<JSModule> jsModules = new ArrayList<>();
+        JSModule base = null;
+
+        for ( Map.Entry<String, Map<String, String>> entry : modules.entrySet() )
+        {
+            JSModule module = new JSModule( entry.getKey() );
+            for ( Map.Entry<String, String> source : entry.getValue().entrySet() )
+            {
+                module.add( SourceFile.fromCode( source.getKey(), source.getValue() ) );
+            }
+
+            if ( base == null )
+            {
+                base = module;
+            }
+            else
+            {
+                module.addDependency( base );
+            }
+
+            jsModules.add( module );
+        }
+
+        Compiler compiler = new Compiler( new CollectingErrorManager() );
+        Result result = compiler.compileModules( getExterns(), jsModules, createOptions( level ) );
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        if ( result.success )
+        {
+            for ( JSModule module : jsModules )
+            {
+                sources.put( module.getName(), compiler.toSource( module ) );
+            }
+        }
+
+        return new Output( sources, format( result.errors ), format( result.warnings ) );
+    }
+
+    /**
+     * Read content of java-script files, content is shared by session cache
+     *
+     * @param paths absolute paths to java-script files
+     * @return content of files keyed by their path
+     * @throws IOException if file could not be read
+     */
+    protected Map<String, String> readSources( List<String> paths ) throws IOException
+    {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for ( String path : paths )
+        {
+            sources.put( path, session.getSource( new File( path ) ) );
+        }
+
+        return sources;
+    }
+
+    /**
+     * Read content of java-script files of all modules
+     *
+     * @param modules map of module name and absolute paths to its java-script files
+     * @return map of module name and content of its files keyed by their path
+     * @throws IOException if file could not be read
+     */
+    protected Map<String, Map<String, String>> readModuleSources( Map<String, List<String>> modules ) throws IOException
+    {
+        Map<String, Map<String, String>> sources = new LinkedHashMap<>();
+        for ( Map.Entry<String, List<String>> module : modules.entrySet() )
+        {
+            sources.put( module.getKey(), readSources( module.getValue() ) );
+        }
+
+        return sources;
+    }
+
+    /**
+     * Create compiler options equivalent to command line runner defaults with
+     * <code>--manage_closure_dependencies</code> turned on
+     *
+     * @param level compilation level
+     * @return compiler options
+     */
+    private CompilerOptions createOptions( CompilationLevel level )
+    {
+        CompilerOptions options = new CompilerOptions();
+        options.setCodingConvention( new ClosureCodingConvention() );
+        level.setOptionsForCompilationLevel( options );
+        WarningLevel.DEFAULT.setOptionsForWarningLevel( options );
+        options.setClosurePass( true );
+        options.setManageClosureDependencies( true );
+
+        return options;
+    }
+
+    /**
+     * Return default externs. Every compilation gets its own {@link SourceFile} instances backed by shared content.
+     *
+     * @return default externs
+     * @throws IOException if externs could not be loaded
+     */
+    private List<SourceFile> getExterns() throws IOException
+    {
+        List<SourceFile> list = new ArrayList<>();
+        for ( Map.Entry<String, String> extern : session.getExterns().entrySet() )
+        {
+            list.add( SourceFile.fromCode( extern.getKey(), extern.getValue() ) );
+        }
+
+        return list;
+    }
+
+    private static List<String> format( JSError[] errors )
+    {
+        List<String> list = new ArrayList<>();
+        for ( JSError error : errors )
+        {
+            list.add( error.sourceName + ":" + error.lineNumber + ": " + error.description );
+        }
+
+        return list;
+    }
+
+    /**
+     * Result of compilation
+     */
+    public static class Output
+    {
+        private final Map<String, String> sources;
+
+        private final List<String> errors;
+
+        private final List<String> warnings;
+
+        Output( Map<String, String> sources, List<String> errors, List<String> warnings )
+        {
+            this.sources = sources;
+            this.errors = errors;
+            this.warnings = warnings;
+        }
+
+        /**
+         * Return compiled source
+         *
+         * @return compiled source or <code>null</code> if compilation failed
+         */
+        public String getSource()
+        {
+            return sources.isEmpty() ? null : sources.values().iterator().next();
+        }
+
+        /**
+         * Return compiled source of module
+         *
+         * @param module name of module
+         * @return compiled source of module or <code>null</code> if compilation failed
+         */
+        public String getSource( String module )
+        {
+            return sources.get( module );
+        }
+
+        /**
+         * Return compiled sources keyed by module name, single source of non-module compilation has
+         * <code>null</code> key
+         *
+         * @return compiled sources
+         */
+        Map<String, String> getSources()
+        {
+            return sources;
+        }
+
+        public List<String> getErrors()
+        {
+            return errors;
+        }
+
+        public List<String> getWarnings()
+        {
+            return warnings;
+        }
+
+        public boolean isSuccess()
+        {
+            return !sources.isEmpty();
+        }
+    }
+
+    /**
+     * Error manager which only collects errors and warnings, they are returned in {@link Result}
+     */
+    private static class CollectingErrorManager
+            extends BasicErrorManager
+    {
+        @Override
+        public void println( CheckLevel level, JSError error )
+        {
+            // errors are reported from compilation result
+        }
+
+        @Override
+        protected void printSummary()
+        {
+            // errors are reported from compilation result
+        }
+    }
+}
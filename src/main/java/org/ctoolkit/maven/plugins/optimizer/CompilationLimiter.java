@@ -0,0 +1,156 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * <p>Limits number of closure compilations running at the same time in the JVM.</p>
+ * <p>In parallel maven build every module may compile its java-script at the same time and every compilation keeps
+ * whole AST of its sources (closure library in particular) in memory. Limiter is shared by all plugin executions of
+ * maven session (see {@link SessionCache}) and bounds both number of concurrent compilations and their estimated
+ * heap cost. Heap cost of compilation is estimated from size of its inputs, total cost of running compilations is
+ * kept below three quarters of maximum heap. Compilation which alone exceeds the budget still runs, just alone.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class CompilationLimiter
+{
+    private static Logger log = Logger.getLogger( CompilationLimiter.class.getName() );
+
+    /**
+     * Estimated heap used by compiler per byte of java-script input
+     */
+    private static final long HEAP_PER_INPUT_BYTE = 64;
+
+    /**
+     * Minimal estimated heap of compilation in megabytes
+     */
+    private static final int MIN_HEAP_MB = 16;
+
+    private final int maxCompilations;
+
+    private final int heapBudgetMb;
+
+    private final Semaphore compilations;
+
+    private final Semaphore heap;
+
+    /**
+     * Create compilation limiter
+     *
+     * @param maxCompilations maximum number of concurrent compilations, if less than 1 number of available
+     *                        processors is used
+     */
+    public CompilationLimiter( int maxCompilations )
+    {
+        this( maxCompilations, Runtime.getRuntime().maxMemory() / 4 * 3 );
+    }
+
+    /**
+     * Create compilation limiter
+     *
+     * @param maxCompilations maximum number of concurrent compilations, if less than 1 number of available
+     *                        processors is used
+     * @param heapBudget      maximum total estimated heap of concurrent compilations in bytes
+     */
+    public CompilationLimiter( int maxCompilations, long heapBudget )
+    {
+        this.maxCompilations = maxCompilations > 0 ? maxCompilations : Runtime.getRuntime().availableProcessors();
+        this.heapBudgetMb = ( int ) Math.max( MIN_HEAP_MB, Math.min( Integer.MAX_VALUE, heapBudget >> 20 ) );
+
+        // fair semaphores, so large compilation waiting for heap is not starved by smaller ones
+        this.compilations = new Semaphore( this.maxCompilations, true );
+        this.heap = new Semaphore( heapBudgetMb, true );
+    }
+
+    public int getMaxCompilations()
+    {
+        return maxCompilations;
+    }
+
+    /**
+     * Wait until compilation can be started. Returned permit has to be closed when compilation finishes.
+     *
+     * @param inputBytes total size of compilation inputs in bytes
+     * @return permit of compilation
+     * @throws InterruptedIOException if thread has been interrupted while waiting
+     */
+    public Permit acquire( long inputBytes ) throws InterruptedIOException
+    {
+        int cost = ( int ) Math.min( heapBudgetMb, Math.max( MIN_HEAP_MB, inputBytes * HEAP_PER_INPUT_BYTE >> 20 ) );
+
+        try
+        {
+            // always in the same order, compilation slot first
+            compilations.acquire();
+            try
+            {
+                heap.acquire( cost );
+            }
+            catch ( InterruptedException e )
+            {
+                compilations.release();
+                throw e;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for compilation slot" );
+        }
+
+        log.fine( "Compilation started, estimated heap " + cost + " MB, available " + heap.availablePermits() + " MB" );
+
+        return new Permit( cost );
+    }
+
+    /**
+     * Permit of running compilation
+     */
+    public class Permit
+            implements AutoCloseable
+    {
+        private final int cost;
+
+        private boolean closed;
+
+        private Permit( int cost )
+        {
+            this.cost = cost;
+        }
+
+        /**
+         * Release permit, so waiting compilations can start
+         */
+        @Override
+        public synchronized void close()
+        {
+            if ( !closed )
+            {
+                closed = true;
+                heap.release( cost );
+                compilations.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.css.SourceCode;
+import com.google.javascript.jscomp.CompilationLevel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Compile daemon - background JVM compiling css and java-script groups for plugin executions.</p>
+ * <p>Daemon keeps closure compiler and closure-stylesheets loaded and JIT compiled across maven invocations. Client
+ * sends content of every source with request, so daemon compiles exactly what client has read and never reads
+ * project files itself. It listens on loopback interface only and publishes its
+ * port, access token and version in state file. Every request carries token and version, request of different
+ * plugin version is refused, so stale daemon never serves results. Daemon exits after configured idle time.</p>
+ * <p>Protocol is simple binary request/response, one request per connection:</p>
+ * <pre>
+ * request:  token, version, command, command arguments
+ * response: status, result
+ * </pre>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class CompileDaemon
+{
+    private static Logger log = Logger.getLogger( CompileDaemon.class.getName() );
+
+    static final String COMMAND_PING = "ping";
+
+    static final String COMMAND_STOP = "stop";
+
+    static final String COMMAND_JS = "js";
+
+    static final String COMMAND_JS_MODULES = "js-modules";
+
+    static final String COMMAND_CSS = "css";
+
+    static final String STATUS_OK = "ok";
+
+    static final String STATUS_FAILED = "failed";
+
+    static final String STATUS_REFUSED = "refused";
+
+    /**
+     * Interval of idle checks in milliseconds
+     */
+    private static final int ACCEPT_TIMEOUT = 5000;
+
+    private final File stateFile;
+
+    private final long idleTimeout;
+
+    private final String version;
+
+    private final String token;
+
+    private final SessionCache session = new SessionCache();
+
+    private final ClosureJsEngine jsEngine = new ClosureJsEngine( session );
+
+    private final ClosureCssEngine cssEngine = new ClosureCssEngine();
+
+    private final CompilationLimiter limiter = new CompilationLimiter( 0 );
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    private volatile long lastRequest = System.currentTimeMillis();
+
+    private volatile boolean stopped;
+
+    private CompileDaemon( File stateFile, long idleTimeout, String version )
+    {
+        this.stateFile = stateFile;
+        this.idleTimeout = idleTimeout;
+        this.version = version;
+
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes( bytes );
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : bytes )
+        {
+            sb.append( String.format( "%02x", b & 0xff ) );
+        }
+        this.token = sb.toString();
+    }
+
+    /**
+     * Start daemon
+     *
+     * @param args state file, idle timeout in seconds and version of plugin class path
+     * @throws IOException if daemon could not be started
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 3 )
+        {
+            System.err.println( "Usage: CompileDaemon <state file> <idle timeout seconds> <version>" );
+            System.exit( 2 );
+        }
+
+        new CompileDaemon( new File( args[0] ), Long.parseLong( args[1] ) * 1000, args[2] ).run();
+        System.exit( 0 );
+    }
+
+    private void run() throws IOException
+    {
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try ( ServerSocket server = new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() ) )
+        {
+            server.setSoTimeout( ACCEPT_TIMEOUT );
+            writeStateFile( server.getLocalPort() );
+            log.info( "Compile daemon " + version + " listening on port " + server.getLocalPort() );
+
+            while ( !stopped )
+            {
+                final Socket socket;
+                try
+                {
+                    socket = server.accept();
+                }
+                catch ( SocketTimeoutException e )
+                {
+                    if ( activeRequests.get() == 0 && System.currentTimeMillis() - lastRequest > idleTimeout )
+                    {
+                        log.info( "Compile daemon has been idle for " + idleTimeout / 1000 + " s, shutting down" );
+                        break;
+                    }
+                    continue;
+                }
+
+                activeRequests.incrementAndGet();
+                executor.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            handle( socket );
+                        }
+                        finally
+                        {
+                            lastRequest = System.currentTimeMillis();
+                            activeRequests.decrementAndGet();
+                        }
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            deleteStateFile();
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle( Socket socket )
+    {
+        try ( Socket s = socket;
+              DataInputStream in = new DataInputStream( new BufferedInputStream( s.getInputStream() ) );
+              DataOutputStream out = new DataOutputStream( new BufferedOutputStream( s.getOutputStream() ) ) )
+        {
+            // stalled client must not block request thread, otherwise daemon would never become idle
+            s.setSoTimeout( DaemonClient.READ_TIMEOUT );
+
+            String requestToken = in.readUTF();
+            String requestVersion = in.readUTF();
+            String command = in.readUTF();
+
+            if ( !token.equals( requestToken ) || !version.equals( requestVersion ) )
+            {
+                out.writeUTF( STATUS_REFUSED );
+                out.writeUTF( version );
+                return;
+            }
+
+            switch ( command )
+            {
+                case COMMAND_PING:
+                    out.writeUTF( STATUS_OK );
+                    break;
+
+                case COMMAND_STOP:
+                    stopped = true;
+                    out.writeUTF( STATUS_OK );
+                    break;
+
+                case COMMAND_JS:
+                {
+                    CompilationLevel level = CompilationLevel.valueOf( in.readUTF() );
+                    Map<String, String> sources = readSources( in );
+                    writeOutput( out, compileJs( level, sources, null ) );
+                    break;
+                }
+
+                case COMMAND_JS_MODULES:
+                {
+                    CompilationLevel level = CompilationLevel.valueOf( in.readUTF() );
+                    Map<String, Map<String, String>> modules = new LinkedHashMap<>();
+                    int count = in.readInt();
+                    for ( int i = 0; i < count; i++ )
+                    {
+                        modules.put( in.readUTF(), readSources( in ) );
+                    }
+                    writeOutput( out, compileJs( level, null, modules ) );
+                    break;
+                }
+
+                case COMMAND_CSS:
+                {
+                    boolean simplify = in.readBoolean();
+                    List<SourceCode> sources = new ArrayList<>();
+                    int count = in.readInt();
+                    for ( int i = 0; i < count; i++ )
+                    {
+                        sources.add( new SourceCode( in.readUTF(), readString( in ) ) );
+                    }
+
+                    String css;
+                    try
+                    {
+                        css = cssEngine.compile( sources, simplify );
+                    }
+                    catch ( IOException e )
+                    {
+                        out.writeUTF( STATUS_FAILED );
+                        writeString( out, e.getMessage() );
+                        break;
+                    }
+
+                    out.writeUTF( STATUS_OK );
+                    writeString( out, css );
+                    break;
+                }
+
+                default:
+                    out.writeUTF( STATUS_FAILED );
+                    writeString( out, "Unknown command: " + command );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            log.log( Level.WARNING, "Compile request failed", e );
+        }
+    }
+
+    private ClosureJsEngine.Output compileJs( CompilationLevel level,
+                                              Map<String, String> sources,
+                                              Map<String, Map<String, String>> modules )
+            throws IOException
+    {
+        long inputBytes = 0;
+        for ( Map<String, String> files : modules != null ? modules.values() : Collections.singletonList( sources ) )
+        {
+            for ( String content : files.values() )
+            {
+                inputBytes += content.length();
+            }
+        }
+
+        CompilationLimiter.Permit permit = limiter.acquire( inputBytes );
+        try
+        {
+            return modules != null ? jsEngine.compileModuleSources( modules, level ) : jsEngine.compileSources( sources, level );
+        }
+        finally
+        {
+            permit.close();
+        }
+    }
+
+    private static void writeOutput( DataOutputStream out, ClosureJsEngine.Output output ) throws IOException
+    {
+        out.writeUTF( STATUS_OK );
+
+        Map<String, String> sources = output.getSources();
+        out.writeInt( sources.size() );
+        for ( Map.Entry<String, String> source : sources.entrySet() )
+        {
+            out.writeBoolean( source.getKey() != null );
+            if ( source.getKey() != null )
+            {
+                out.writeUTF( source.getKey() );
+            }
+            writeString( out, source.getValue() );
+        }
+
+        writeList( out, output.getErrors() );
+        writeList( out, output.getWarnings() );
+    }
+
+    /**
+     * Read compilation output written by daemon
+     *
+     * @param in input stream of daemon response
+     * @return compilation output
+     * @throws IOException if output could not be read
+     */
+    static ClosureJsEngine.Output readOutput( DataInputStream in ) throws IOException
+    {
+        Map<String, String> sources = new LinkedHashMap<>();
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            String name = in.readBoolean() ? in.readUTF() : null;
+            sources.put( name, readString( in ) );
+        }
+
+        List<String> errors = readList( in );
+        List<String> warnings = readList( in );
+
+        return new ClosureJsEngine.Output( sources, errors, warnings );
+    }
+
+    /**
+     * Write string of any length as UTF-8 bytes prefixed by their length
+     *
+     * @param out    output stream
+     * @param string string to write
+     * @throws IOException if string could not be written
+     */
+    static void writeString( DataOutputStream out, String string ) throws IOException
+    {
+        byte[] bytes = string.getBytes( Charsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    /**
+     * Read string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param in input stream
+     * @return string
+     * @throws IOException if string could not be read
+     */
+    static String readString( DataInputStream in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        return new String( bytes, Charsets.UTF_8 );
+    }
+
+    static void writeList( DataOutputStream out, List<String> list ) throws IOException
+    {
+        out.writeInt( list.size() );
+        for ( String item : list )
+        {
+            writeString( out, item );
+        }
+    }
+
+    static List<String> readList( DataInputStream in ) throws IOException
+    {
+        int count = in.readInt();
+        List<String> list = new ArrayList<>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            list.add( readString( in ) );
+        }
+
+        return list;
+    }
+
+    /**
+     * Write sources as pairs of path and content
+     *
+     * @param out     output stream
+     * @param sources content of files keyed by their path
+     * @throws IOException if sources could not be written
+     */
+    static void writeSources( DataOutputStream out, Map<String, String> sources ) throws IOException
+    {
+        out.writeInt( sources.size() );
+        for ( Map.Entry<String, String> source : sources.entrySet() )
+        {
+            out.writeUTF( source.getKey() );
+            writeString( out, source.getValue() );
+        }
+    }
+
+    /**
+     * Read sources written by {@link #writeSources(DataOutputStream, Map)}
+     *
+     * @param in input stream
+     * @return content of files keyed by their path
+     * @throws IOException if sources could not be read
+     */
+    static Map<String, String> readSources( DataInputStream in ) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for ( int i = 0; i < count; i++ )
+        {
+            sources.put( in.readUTF(), readString( in ) );
+        }
+
+        return sources;
+    }
+
+    /**
+     * Create directory accessible only by its owner, permissions of already existing directory are restricted too
+     *
+     * @param directory directory to create
+     * @throws IOException if directory could not be created
+     */
+    static void createPrivateDirectory( File directory ) throws IOException
+    {
+        Path path = directory.toPath();
+        try
+        {
+            if ( Files.isDirectory( path ) )
+            {
+                Files.setPosixFilePermissions( path, PosixFilePermissions.fromString( "rwx------" ) );
+            }
+            else
+            {
+                Files.createDirectories( path,
+                        PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rwx------" ) ) );
+            }
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // not a posix file system, directory is protected by permissions of user home only
+            Files.createDirectories( path );
+        }
+    }
+
+    /**
+     * Write state file readable only by owner, so only processes of the same user know the token
+     *
+     * @param port port of daemon
+     * @throws IOException if state file could not be written
+     */
+    private void writeStateFile( int port ) throws IOException
+    {
+        File directory = stateFile.getAbsoluteFile().getParentFile();
+        createPrivateDirectory( directory );
+
+        // file is created owner-only before token is written into it and then atomically moved into place
+        Path temp = new File( directory, stateFile.getName() + "." + token + ".tmp" ).toPath();
+        try
+        {
+            Files.createFile( temp,
+                    PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-------" ) ) );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // not a posix file system, token is protected by daemon directory permissions only
+            Files.createFile( temp );
+        }
+
+        try
+        {
+            try ( OutputStream stream = Files.newOutputStream( temp ) )
+            {
+                stream.write( ( "port=" + port + "\ntoken=" + token + "\nversion=" + version + "\n" ).getBytes( Charsets.UTF_8 ) );
+            }
+            Files.move( temp, stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally
+        {
+            Files.deleteIfExists( temp );
+        }
+    }
+
+    /**
+     * Delete state file unless it has been already replaced by another daemon
+     */
+    private void deleteStateFile()
+    {
+        Properties state = readStateFile( stateFile );
+        if ( state != null && token.equals( state.getProperty( "token" ) ) )
+        {
+            stateFile.delete();
+        }
+    }
+
+    /**
+     * Read daemon state file
+     *
+     * @param stateFile state file
+     * @return state properties or <code>null</code> if state file does not exist or could not be read
+     */
+    static Properties readStateFile( File stateFile )
+    {
+        if ( !stateFile.isFile() )
+        {
+            return null;
+        }
+
+        Properties state = new Properties();
+        try ( InputStream stream = new FileInputStream( stateFile ) )
+        {
+            state.load( stream );
+            return state;
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+}
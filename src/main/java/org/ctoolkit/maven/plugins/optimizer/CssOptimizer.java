@@ -20,43 +20,50 @@
 package org.ctoolkit.maven.plugins.optimizer;
 
 import com.google.common.base.Charsets;
-import com.google.common.css.compiler.commandline.ClosureCommandLineCompiler;
-import com.google.common.io.CharStreams;
+import com.google.common.css.SourceCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import org.ctoolkit.maven.plugins.util.FileHelper;
+import org.ctoolkit.maven.plugins.util.OutputWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
-import javax.imageio.ImageIO;
-import javax.xml.bind.DatatypeConverter;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * <p>CssOptimizer does followings:</p>
  * <ul>
- * <li>Encode images in css files to base64</li>
+ * <li>Encode images in css files to base64 (images larger than configured maximum size are left as they are), SVG
+ * images as percent-encoded text and fonts if their maximum size is configured</li>
+ * <li>Or pack background images of group into PNG sprite sheets written next to output css</li>
  * <li>Minify and merge all css files defined in group</li>
  * </ul>
  * <p>Example of configuration xml:</p>
  * <pre>
  *  &lt;groups&gt;
- *      &lt;group name="style.min.css"&gt; &lt;!-- Output css file name --&gt;
+ *      &lt;!-- Output css file name, optional mode overrides optimization mode of the build, optional sprite="true"
+ *      packs background images into sprite sheets instead of inlining them --&gt;
+ *      &lt;group name="style.min.css" mode="simple" sprite="true"&gt;
  *          &lt;!-- Path to external css (path must be located inside in the class-path) --&gt;
  *          &lt;external-css&gt;/org/apache/commons/io/test.css&lt;/external-css&gt;
  *          &lt;!-- Path to project style css --&gt;
@@ -71,17 +78,40 @@ public class CssOptimizer
 {
     private static Logger log = Logger.getLogger( CssOptimizer.class.getName() );
 
-    private static final String URL_DATA_IMAGE_BASE64 = "url(\"data:image/{0};base64,{1}\")";
+    private static final String DATA_URI = "data:";
 
-    private static final String DATA_IMAGE_PNG_BASE64 = "data:image";
+    /**
+     * Background position keywords and repeat values, shorthand declaration containing them can not be sprited
+     */
+    private static final Set<String> SPRITE_CONFLICTS = new HashSet<>( Arrays.asList( "left", "right", "top", "bottom",
+            "center", "repeat", "repeat-x", "repeat-y", "space", "round" ) );
+
+    /**
+     * Process css optimization. Groups are optimized concurrently on the worker pool of the context, results
+     * are reported in order of groups in configuration xml.
+     *
+     * @param pathToXml     path to css configuration xml
+     * @param cssOutputPath css output path
+     * @param baseDir       project base directory
+     * @param context       optimizer context
+     */
+    public static void process( String pathToXml, String cssOutputPath, String baseDir, OptimizerContext context )
+    {
+        process( pathToXml, cssOutputPath, baseDir, context, null );
+    }
 
     /**
-     * Process css optimization
+     * Process css optimization of groups affected by changed files. If configuration xml itself has changed,
+     * all groups are optimized.
      *
      * @param pathToXml     path to css configuration xml
      * @param cssOutputPath css output path
+     * @param baseDir       project base directory
+     * @param context       optimizer context
+     * @param changedFiles  normalized absolute paths of changed files, <code>null</code> to optimize all groups
      */
-    public static void process( String pathToXml, String cssOutputPath, String baseDir )
+    public static void process( String pathToXml, final String cssOutputPath, String baseDir, final OptimizerContext context,
+                                Set<String> changedFiles )
     {
         if ( pathToXml == null || pathToXml.trim().isEmpty() )
         {
@@ -98,151 +128,784 @@ public class CssOptimizer
 
         try
         {
-            for ( CSSConfig cssConfig : getCssConfigList( pathToXml, baseDir ) )
+            long start = System.nanoTime();
+            List<CSSConfig> cssConfigList = getCssConfigList( pathToXml, baseDir, context.getSession() );
+            context.getReport().parsed( "css", start );
+
+            if ( changedFiles != null && !changedFiles.contains( FileHelper.normalizePath( pathToXml ) ) )
+            {
+                cssConfigList = getAffectedGroups( cssConfigList, changedFiles, context.getImageResolver() );
+            }
+
+            List<Callable<String>> tasks = new ArrayList<>();
+
+            for ( final CSSConfig cssConfig : cssConfigList )
             {
-                String cssOutputFileName = cssConfig.getCssOutputName();
-                List<String> cssPaths = new ArrayList<>();
+                tasks.add( new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return processGroup( cssConfig, cssOutputPath, context );
+                    }
+                } );
+            }
 
-                // create external css files
-                for ( String externalCssContent : cssConfig.getExternalCssList() )
+            List<Future<String>> results = context.submitAll( tasks );
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                try
+                {
+                    String optimizedCss = results.get( i ).get();
+                    log.info( ">>> Css optimization finished successfully. Optimized css file can be found at: " + optimizedCss );
+                }
+                catch ( ExecutionException e )
                 {
-                    String externalCssFileName = FileHelper.writeToFile( File.createTempFile( "externalCssFile", ".css" ), externalCssContent );
-                    cssPaths.add( externalCssFileName );
+                    log.log( Level.SEVERE, "Error occurred during processing css group '" + cssConfigList.get( i ).getCssOutputName() + "': ", e.getCause() );
                 }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.log( Level.SEVERE, "Error occurred during processing css: ", e );
+        }
+    }
 
-                // encode images in css
-                for ( String cssCustomInputFileName : cssConfig.getCssList() )
+    /**
+     * Return normalized absolute paths of configuration xml, all css files of all groups and images and fonts
+     * referenced by them
+     *
+     * @param pathToXml path to css configuration xml
+     * @param baseDir   project base directory
+     * @return input files of css optimization, empty if path to xml is not set
+     * @throws Exception if configuration xml could not be parsed
+     */
+    public static Set<String> getInputFiles( String pathToXml, String baseDir ) throws Exception
+    {
+        Set<String> inputs = new LinkedHashSet<>();
+        if ( pathToXml == null || pathToXml.trim().isEmpty() || !new File( pathToXml ).exists() )
+        {
+            return inputs;
+        }
+
+        inputs.add( FileHelper.normalizePath( pathToXml ) );
+        ImagePathResolver imageResolver = new ImagePathResolver();
+        for ( CSSConfig cssConfig : getCssConfigList( pathToXml, baseDir, new SessionCache() ) )
+        {
+            for ( String css : cssConfig.getCssList() )
+            {
+                inputs.add( FileHelper.normalizePath( css ) );
+            }
+            inputs.addAll( getReferencedFiles( cssConfig, imageResolver ) );
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Return groups with at least one changed css file or changed image or font referenced by css
+     *
+     * @param cssConfigList css group configurations
+     * @param changedFiles  normalized absolute paths of changed files
+     * @param imageResolver resolver of referenced images
+     * @return affected groups
+     * @throws IOException if css file could not be read
+     */
+    private static List<CSSConfig> getAffectedGroups( List<CSSConfig> cssConfigList, Set<String> changedFiles,
+                                                      ImagePathResolver imageResolver ) throws IOException
+    {
+        List<CSSConfig> affected = new ArrayList<>();
+        for ( CSSConfig cssConfig : cssConfigList )
+        {
+            boolean changed = false;
+            for ( String css : cssConfig.getCssList() )
+            {
+                if ( changedFiles.contains( FileHelper.normalizePath( css ) ) )
                 {
-                    File cssCustomFile = new File( cssCustomInputFileName );
+                    changed = true;
+                    break;
+                }
+            }
 
-                    if ( cssCustomFile.exists() )
-                    {
-                        String cssCustomString = encodeImages( cssCustomFile );
-                        String encodedCssFileName = FileHelper.writeToFile( File.createTempFile( "encodedCssFile", ".css" ), cssCustomString );
+            if ( changed || !Collections.disjoint( changedFiles, getReferencedFiles( cssConfig, imageResolver ) ) )
+            {
+                affected.add( cssConfig );
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Return normalized absolute paths of local images and fonts referenced by css files of group
+     *
+     * @param cssConfig     css group configuration
+     * @param imageResolver resolver of referenced images
+     * @return referenced files which exist
+     * @throws IOException if css file could not be read
+     */
+    private static Set<String> getReferencedFiles( CSSConfig cssConfig, ImagePathResolver imageResolver ) throws IOException
+    {
+        Set<String> files = new LinkedHashSet<>();
+        for ( String css : cssConfig.getCssList() )
+        {
+            File cssFile = new File( css );
+            if ( !cssFile.isFile() )
+            {
+                continue;
+            }
 
-                        cssPaths.add( encodedCssFileName );
+            CssUrlScanner m = new CssUrlScanner( Files.toString( cssFile, Charsets.UTF_8 ) );
+            while ( m.find() )
+            {
+                if ( isLocalImage( m.value() ) )
+                {
+                    File file = imageResolver.resolve( cssFile.getParentFile(), m.value() );
+                    if ( file != null )
+                    {
+                        files.add( FileHelper.normalizePath( file.getPath() ) );
                     }
                 }
+            }
+        }
 
-                // minify css
-                String cssOutputString;
-                if ( cssConfig.getMinfy() )
-                {
-                    cssPaths.add( "-o" ); // set output file parameter as temp file (we will load its content into cssOutputString
-                    File cssMinifiedFile = File.createTempFile( "minifiedCssFile", "css" );
-                    cssPaths.add( cssMinifiedFile.getAbsolutePath() );
-                    ClosureCommandLineCompiler.main( cssPaths.toArray( new String[cssPaths.size()] ) );
+        return files;
+    }
+
+    /**
+     * Optimize single css group
+     *
+     * @param cssConfig     css group configuration
+     * @param cssOutputPath css output path
+     * @param context       optimizer context
+     * @return full path of optimized css file
+     * @throws IOException if IOException occurs
+     */
+    private static String processGroup( CSSConfig cssConfig, String cssOutputPath, OptimizerContext context ) throws IOException
+    {
+        String cssOutputFileName = cssConfig.getCssOutputName();
+        List<SourceCode> sources = new ArrayList<>();
+        OptimizerReport.Group report = context.getReport().newGroup( "css", cssOutputFileName );
+        OptimizationMode mode = cssConfig.getMode() != null ? cssConfig.getMode() : context.getMode();
+        ImageInliner imageInliner = context.getImageInliner();
 
-                    cssOutputString = Files.toString(cssMinifiedFile, Charsets.UTF_8);
+        BuildCache.Key cacheKey = context.getCache().newKey( "css" )
+                .putString( cssOutputFileName )
+                .putString( String.valueOf( cssConfig.getMinfy() ) )
+                .putString( mode.name() )
+                // css refers to sprite sheet by fingerprinted name or by name with content hash query
+                .putString( cssConfig.isSprite() ? context.getSpriteImageMaxSize() + ":" + ( context.getFingerprinter() != null ) : "" )
+                .putString( imageInliner.getMaxSize() + ":" + imageInliner.getFontMaxSize() + ":" + ( imageInliner.getOptimizer() != null ) );
 
-                    log.info( "CSS minified output:\n===\n" + cssOutputString + "\n===\n");
+        // add external css, content is kept in memory only while group is processed
+        List<ExternalCss> acquired = new ArrayList<>();
+        String cssOutputString;
+        try
+        {
+            for ( ExternalCss externalCss : cssConfig.getExternalCssList() )
+            {
+                SourceCode source = externalCss.acquire();
+                acquired.add( externalCss );
+
+                sources.add( source );
+                cacheKey.putString( source.getFileContents() );
+                report.addInputBytes( OutputWriter.utf8Length( source.getFileContents() ) );
+            }
+
+            // read custom css, key covers raw css and images it references, so images are not encoded at all if group
+            // is restored from cache
+            List<File> cssCustomFiles = new ArrayList<>();
+            List<String> cssCustomStrings = new ArrayList<>();
+            for ( String cssCustomInputFileName : cssConfig.getCssList() )
+            {
+                File cssCustomFile = new File( cssCustomInputFileName );
+
+                if ( cssCustomFile.exists() )
+                {
+                    long start = System.nanoTime();
+                    String cssCustomString = Files.toString( cssCustomFile, Charsets.UTF_8 );
+                    cssCustomStrings.add( cssCustomString );
+                    cssCustomFiles.add( cssCustomFile );
+                    report.addInputBytes( cssCustomFile.length() );
+
+                    cacheKey.putFile( cssCustomFile );
+                    putImages( cacheKey, cssCustomFile, cssCustomString, context );
+                    report.time( OptimizerReport.STAGE_READ, start );
                 }
-                else
+            }
+
+            cssOutputString = context.getCache().get( cacheKey );
+
+            // sprite sheet is shared by all css files of group, it is written even if css is restored from cache
+            Map<File, SpritePacker.Sprite> sprites = Collections.emptyMap();
+            if ( cssConfig.isSprite() )
+            {
+                long start = System.nanoTime();
+                sprites = createSprites( cssCustomFiles, cssCustomStrings, cssOutputPath, cssOutputFileName, context, report );
+                report.time( OptimizerReport.STAGE_INLINE, start );
+            }
+
+            if ( cssOutputString != null )
+            {
+                report.setCached( true );
+                log.info( "Css group '" + cssOutputFileName + "' is up to date, restored from cache: " + cacheKey );
+            }
+            else
+            {
+                // encode images in css
+                for ( int i = 0; i < cssCustomFiles.size(); i++ )
                 {
-                    StringBuilder output = new StringBuilder();
-                    for ( String cssPath : cssPaths )
-                    {
-                        output.append( Files.toString( new File( cssPath ), Charsets.UTF_8 ) );
-                    }
+                    long start = System.nanoTime();
+                    String cssCustomString = encodeImages( cssCustomFiles.get( i ), cssCustomStrings.get( i ), context, report, sprites );
+                    report.time( OptimizerReport.STAGE_INLINE, start );
 
-                    cssOutputString = output.toString();
+                    sources.add( new SourceCode( cssCustomFiles.get( i ).getPath(), cssCustomString ) );
                 }
 
+                long start = System.nanoTime();
+                cssOutputString = minify( cssConfig, mode, sources, context.getCssEngine() );
+                report.time( OptimizerReport.STAGE_COMPILE, start );
+
+                context.getCache().put( cacheKey, cssOutputString );
+            }
+        }
+        finally
+        {
+            for ( ExternalCss externalCss : acquired )
+            {
+                externalCss.release();
+            }
+        }
 
-                // create final css file
-                String optimizedCss = FileHelper.createOutputFile( cssOutputPath, cssOutputFileName, cssOutputString );
+        // create final css file
+        return context.writeOutput( cssOutputPath, cssOutputFileName, cssOutputString, report );
+    }
 
-                log.info( ">>> Css optimization finished successfully. Optimized css file can be found at: " + optimizedCss );
+    /**
+     * Minify css of group or just concatenate it if minification is turned off for group or mode is fast
+     *
+     * @param cssConfig css group configuration
+     * @param mode      optimization mode of group
+     * @param sources   css sources of group
+     * @param cssEngine css engine
+     * @return optimized css
+     * @throws IOException if IOException occurs
+     */
+    private static String minify( CSSConfig cssConfig, OptimizationMode mode, List<SourceCode> sources,
+                                  ClosureCssEngine cssEngine ) throws IOException
+    {
+        String cssOutputString;
+        if ( cssConfig.getMinfy() && mode != OptimizationMode.FAST )
+        {
+            cssOutputString = cssEngine.compile( sources, mode == OptimizationMode.ADVANCED );
+        }
+        else
+        {
+            StringBuilder output = new StringBuilder();
+            for ( SourceCode source : sources )
+            {
+                output.append( source.getFileContents() );
             }
+
+            cssOutputString = output.toString();
         }
-        catch ( Exception e )
+
+        return cssOutputString;
+    }
+
+    /**
+     * Add images referenced by css file to cache key - every url together with path and content hash of image file
+     * it resolves to
+     *
+     * @param cacheKey        cache key of group
+     * @param cssCustomFile   css custom file
+     * @param cssCustomString content of css custom file
+     * @param context         optimizer context
+     * @throws IOException if image could not be read
+     */
+    private static void putImages( BuildCache.Key cacheKey, File cssCustomFile, String cssCustomString,
+                                   OptimizerContext context ) throws IOException
+    {
+        CssUrlScanner m = new CssUrlScanner( cssCustomString );
+        while ( m.find() )
         {
-            log.log( Level.SEVERE, "Error occurred during processing css: ", e );
+            String imgSrc = m.value();
+            if ( !isLocalImage( imgSrc ) )
+            {
+                continue;
+            }
+
+            cacheKey.putString( imgSrc );
+            File file = context.getImageResolver().resolve( cssCustomFile.getParentFile(), imgSrc );
+            if ( file != null )
+            {
+                cacheKey.putFile( file );
+            }
+        }
+    }
+
+    /**
+     * Return <code>true</code> if url refers to local image which can be inlined
+     *
+     * @param imgSrc url of image
+     * @return <code>false</code> for data URI, absolute url and fragment of SVG image
+     */
+    private static boolean isLocalImage( String imgSrc )
+    {
+        if ( imgSrc.startsWith( DATA_URI ) ) // image is already encoded
+        {
+            return false;
         }
+
+        if ( isAbsoluteUrl( imgSrc ) ) // image is not local file
+        {
+            return false;
+        }
+
+        // fragment of svg would be lost
+        return imgSrc.indexOf( '#' ) < 0 || !imgSrc.toLowerCase( Locale.ENGLISH ).contains( ".svg" );
     }
 
     /**
      * Encode images in css file and return encoded css content
      *
-     * @param cssCustomFile css custom file
+     * @param cssCustomFile   css custom file
+     * @param cssCustomString content of css custom file
+     * @param context         optimizer context
+     * @param report          report of group
      * @return css content with encoded images to base64
      * @throws IOException if IOException occurs
      */
-    private static String encodeImages( File cssCustomFile ) throws IOException
+    static String encodeImages( File cssCustomFile, String cssCustomString, OptimizerContext context,
+                                OptimizerReport.Group report ) throws IOException
     {
-        String cssCustomString = Files.toString( cssCustomFile, Charsets.UTF_8 );
+        return encodeImages( cssCustomFile, cssCustomString, context, report, Collections.<File, SpritePacker.Sprite>emptyMap() );
+    }
 
-        // match all images paths
-        Matcher m = Pattern.compile( "url\\(.*\\)" ).matcher( cssCustomString );
+    /**
+     * Replace background images packed into sprite sheet by sheet and position of image in it, encode other images
+     * in css file and return encoded css content
+     *
+     * @param cssCustomFile   css custom file
+     * @param cssCustomString content of css custom file
+     * @param context         optimizer context
+     * @param report          report of group
+     * @param sprites         sprites of group keyed by image file
+     * @return css content with sprites and images encoded to base64
+     * @throws IOException if IOException occurs
+     */
+    private static String encodeImages( File cssCustomFile, String cssCustomString, OptimizerContext context,
+                                        OptimizerReport.Group report, Map<File, SpritePacker.Sprite> sprites )
+            throws IOException
+    {
+        // first phase - find all image urls, every distinct url is resolved and encoded only once
+        List<UrlToken> tokens = new ArrayList<>();
+        Map<String, ImageTask> tasks = new LinkedHashMap<>();
 
-        StringBuffer sb = new StringBuffer();
+        CssUrlScanner m = new CssUrlScanner( cssCustomString );
         while ( m.find() )
         {
-            String imgSrc = m.group( 0 ).replace( "url(\"", "" ).replace( "\")", "" );
-
-            if ( imgSrc.startsWith( DATA_IMAGE_PNG_BASE64 ) ) // image is already encoded
+            String imgSrc = m.value();
+            if ( !isLocalImage( imgSrc ) )
             {
                 continue;
             }
 
-            File file = cssCustomFile.getParentFile();
+            int declarationEnd = sprites.isEmpty() ? -1 : getSpriteDeclarationEnd( cssCustomString, m );
+            tokens.add( new UrlToken( m.start(), m.end(), imgSrc, declarationEnd ) );
+
+            ImageTask task = tasks.get( imgSrc );
+            if ( task == null )
+            {
+                task = new ImageTask( cssCustomFile.getParentFile(), imgSrc, context, report, sprites );
+                tasks.put( imgSrc, task );
+            }
+            task.spriteOnly &= declarationEnd >= 0;
+        }
 
-            for ( final String next : Arrays.asList( imgSrc.split( "/" ) ) )
+        // images are read and encoded in parallel, single image is encoded right away
+        if ( tasks.size() > 1 )
+        {
+            try
             {
-                if ( "..".equals( next ) )
+                for ( Future<Void> future : context.getImagePool().invokeAll( tasks.values() ) )
                 {
-                    file = file.getParentFile();
+                    future.get();
                 }
-                else
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while encoding images of " + cssCustomFile.getPath(), e );
+            }
+            catch ( ExecutionException e )
+            {
+                if ( e.getCause() instanceof IOException )
                 {
-                    File[] files = file.listFiles( new FilenameFilter()
-                    {
-                        @Override
-                        public boolean accept( File dir, String name )
-                        {
-                            return name.equals( next );
-                        }
-                    } );
-
-                    if ( files.length == 0 )
-                    {
-                        continue;
-                    }
+                    throw ( IOException ) e.getCause();
+                }
+                throw new IOException( "Images of " + cssCustomFile.getPath() + " could not be encoded", e.getCause() );
+            }
+        }
+        else
+        {
+            for ( ImageTask task : tasks.values() )
+            {
+                task.call();
+            }
+        }
+
+        // second phase - splice encoded images and sprites into css in order of urls
+        StringBuilder sb = new StringBuilder( cssCustomString.length() );
+        int tail = 0;
+        for ( UrlToken token : tokens )
+        {
+            ImageTask task = tasks.get( token.value );
+            SpritePacker.Sprite sprite = task.file != null ? sprites.get( task.file ) : null;
 
-                    file = files[0];
+            if ( sprite != null && token.declarationEnd >= 0 )
+            {
+                sb.append( cssCustomString, tail, token.start )
+                        .append( "url(\"" ).append( sprite.getSheet().getUrl() ).append( "\")" )
+                        .append( cssCustomString, token.end, token.declarationEnd )
+                        .append( ";background-position:" ).append( position( sprite.getX() ) )
+                        .append( ' ' ).append( position( sprite.getY() ) );
+                tail = token.declarationEnd;
+                report.addInlinedImage();
+            }
+            else if ( task.dataUri != null )
+            {
+                sb.append( cssCustomString, tail, token.start )
+                        .append( "url(\"" ).append( task.dataUri ).append( "\")" );
+                tail = token.end;
+                report.addInlinedImage();
+            }
+            // otherwise image is left as it is
+        }
+        sb.append( cssCustomString, tail, cssCustomString.length() );
+
+        return sb.toString();
+    }
+
+    /**
+     * Resolve background images of css files which can be packed into sprite sheet, pack them and write sheets
+     * into css output directory. If fingerprinting is turned on, sheet names are fingerprinted as well, so older
+     * fingerprinted css never refers to overwritten sheet.
+     *
+     * @param cssCustomFiles    css custom files
+     * @param cssCustomStrings  contents of css custom files
+     * @param cssOutputPath     css output path
+     * @param cssOutputFileName name of output css
+     * @param context           optimizer context
+     * @param report            report of group
+     * @return sprites keyed by image file, images larger than maximum sprite image size are mapped to <code>null</code>
+     * - they are left as external references
+     * @throws IOException if image could not be read or sheet could not be written
+     */
+    private static Map<File, SpritePacker.Sprite> createSprites( List<File> cssCustomFiles, List<String> cssCustomStrings,
+                                                                 String cssOutputPath, String cssOutputFileName,
+                                                                 OptimizerContext context, OptimizerReport.Group report )
+            throws IOException
+    {
+        ImagePathResolver imageResolver = context.getImageResolver();
+
+        Set<File> images = new LinkedHashSet<>();
+        for ( int i = 0; i < cssCustomFiles.size(); i++ )
+        {
+            String cssCustomString = cssCustomStrings.get( i );
+            CssUrlScanner m = new CssUrlScanner( cssCustomString );
+            while ( m.find() )
+            {
+                String imgSrc = m.value();
+                if ( imgSrc.startsWith( DATA_URI ) || isAbsoluteUrl( imgSrc ) || getSpriteDeclarationEnd( cssCustomString, m ) < 0 )
+                {
+                    continue;
                 }
 
-                if ( file.isFile() )
+                File file = imageResolver.resolve( cssCustomFiles.get( i ).getParentFile(), imgSrc );
+                if ( file != null )
                 {
-                    break;
+                    images.add( file );
                 }
+            }
+        }
 
+        Map<File, SpritePacker.Sprite> sprites = new HashMap<>();
+        if ( images.isEmpty() )
+        {
+            return sprites;
+        }
+
+        File directory = new File( cssOutputPath );
+        if ( !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( "Css output directory could not be created: " + directory.getAbsolutePath() );
+        }
+
+        String baseName = cssOutputFileName.endsWith( ".css" )
+                ? cssOutputFileName.substring( 0, cssOutputFileName.length() - 4 )
+                : cssOutputFileName;
+
+        List<File> large = new ArrayList<>();
+        List<SpritePacker.Sheet> sheets = SpritePacker.pack( images, context.getSpriteImageMaxSize(), large );
+        for ( File file : large )
+        {
+            sprites.put( file, null );
+        }
+
+        Fingerprinter fingerprinter = context.getFingerprinter();
+        for ( int i = 0; i < sheets.size(); i++ )
+        {
+            SpritePacker.Sheet sheet = sheets.get( i );
+            byte[] png = sheet.render();
+            if ( context.getImageInliner().getOptimizer() != null )
+            {
+                byte[] optimized = context.getImageInliner().getOptimizer().optimize( png, "image/png" );
+                report.addSavedImageBytes( png.length - optimized.length );
+                png = optimized;
             }
 
-            if ( file.isFile() )
+            String sheetName = baseName + ".sprite" + ( i + 1 ) + ".png";
+            String outputName = fingerprinter != null ? fingerprinter.getFileName( sheetName, png ) : sheetName;
+            File sheetFile = new File( directory, outputName );
+            if ( OutputWriter.write( sheetFile, png ) )
             {
-                String extension = file.getName().substring( file.getName().indexOf( "." ) + 1 );
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ImageIO.write( ImageIO.read( file ), extension, baos );
+                log.info( "Sprite sheet of " + sheet.getSprites().size() + " images written: " + sheetFile.getAbsolutePath() );
+            }
 
-                String encodedImage = DatatypeConverter.printBase64Binary( baos.toByteArray() );
+            if ( fingerprinter != null )
+            {
+                fingerprinter.written( directory, sheetName, outputName );
+                sheet.setUrl( outputName );
+            }
+            else
+            {
+                // content hash in query makes browsers reload changed sheet even if its name is the same
+                sheet.setUrl( sheetName + "?" + Hashing.sha256().hashBytes( png ).toString().substring( 0, 8 ) );
+            }
 
-                m.appendReplacement( sb, MessageFormat.format( URL_DATA_IMAGE_BASE64, extension, encodedImage ) );
+            for ( SpritePacker.Sprite sprite : sheet.getSprites() )
+            {
+                sprites.put( sprite.getFile(), sprite );
             }
         }
-        m.appendTail( sb );
 
-        return sb.toString();
+        return sprites;
+    }
+
+    /**
+     * Return end of declaration of url found by scanner if image can be replaced by sprite. Image can be replaced
+     * only if it is the only url of <code>background</code> or <code>background-image</code> declaration which
+     * neither repeats the image nor sets its position or size, and if no other declaration of the rule sets
+     * background properties which would override position of sprite.
+     *
+     * @param css css
+     * @param m   scanner positioned at url
+     * @return index of <code>;</code> or <code>}</code> which ends declaration, -1 if image can not be sprited
+     */
+    private static int getSpriteDeclarationEnd( String css, CssUrlScanner m )
+    {
+        int start = m.start();
+        while ( start > 0 && "{};".indexOf( css.charAt( start - 1 ) ) < 0 )
+        {
+            start--;
+        }
+
+        int colon = css.indexOf( ':', start );
+        if ( colon < 0 || colon > m.start() )
+        {
+            return -1;
+        }
+
+        String property = css.substring( start, colon ).trim().toLowerCase( Locale.ENGLISH );
+        if ( !"background".equals( property ) && !"background-image".equals( property ) )
+        {
+            return -1;
+        }
+
+        int end = getDeclarationEnd( css, m.end() );
+
+        String value = ( css.substring( colon + 1, m.start() ) + css.substring( m.end(), end ) ).toLowerCase( Locale.ENGLISH );
+        if ( end == css.length() || value.contains( "url(" ) || value.indexOf( '/' ) >= 0 || hasSpriteConflict( value ) )
+        {
+            return -1;
+        }
+
+        if ( hasOtherBackground( css, start, m.start() ) )
+        {
+            return -1;
+        }
+
+        return end;
+    }
+
+    /**
+     * Return index of <code>;</code> or <code>}</code> which ends declaration, characters in quotes and parentheses
+     * are skipped
+     *
+     * @param css   css
+     * @param start index inside of declaration
+     * @return end of declaration or length of css if declaration is not terminated
+     */
+    private static int getDeclarationEnd( String css, int start )
+    {
+        int end = start;
+        int depth = 0;
+        char quote = 0;
+        while ( end < css.length() )
+        {
+            char c = css.charAt( end );
+            if ( quote != 0 )
+            {
+                if ( c == '\\' )
+                {
+                    end++;
+                }
+                else if ( c == quote )
+                {
+                    quote = 0;
+                }
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                quote = c;
+            }
+            else if ( c == '(' )
+            {
+                depth++;
+            }
+            else if ( c == ')' )
+            {
+                depth = Math.max( 0, depth - 1 );
+            }
+            else if ( depth == 0 && ( c == ';' || c == '}' ) )
+            {
+                break;
+            }
+            end++;
+        }
+
+        return Math.min( end, css.length() );
+    }
+
+    /**
+     * Return <code>true</code> if value of background declaration (without url) sets position or repeats image -
+     * position keyword, length or percentage, or repeat value other than <code>no-repeat</code>
+     *
+     * @param value lower case value of declaration without url
+     * @return <code>true</code> if declaration can not be sprited
+     */
+    private static boolean hasSpriteConflict( String value )
+    {
+        // arguments of functions (e.g. rgb color) are not positions
+        for ( String token : value.replaceAll( "[\\w-]+\\([^)]*\\)", " " ).trim().split( "[\\s,]+" ) )
+        {
+            if ( token.isEmpty() )
+            {
+                continue;
+            }
+
+            char c = token.charAt( 0 );
+            if ( SPRITE_CONFLICTS.contains( token ) || Character.isDigit( c ) || c == '.' || c == '+'
+                    || ( c == '-' && token.length() > 1 && ( Character.isDigit( token.charAt( 1 ) ) || token.charAt( 1 ) == '.' ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return <code>true</code> if rule of declaration contains other background declaration (except of
+     * <code>background-color</code>), which could override position, repeat or image of sprite
+     *
+     * @param css              css
+     * @param declarationStart start of sprited declaration
+     * @param url              index of url in sprited declaration
+     * @return <code>true</code> if rule contains other background declaration
+     */
+    private static boolean hasOtherBackground( String css, int declarationStart, int url )
+    {
+        int ruleStart = css.lastIndexOf( '{', declarationStart - 1 ) + 1;
+        int start = ruleStart;
+        while ( start < css.length() )
+        {
+            int end = getDeclarationEnd( css, start );
+            if ( !( start <= url && url < end ) )
+            {
+                int colon = css.indexOf( ':', start );
+                if ( colon >= 0 && colon < end )
+                {
+                    String property = css.substring( start, colon ).trim().toLowerCase( Locale.ENGLISH );
+                    if ( property.startsWith( "background" ) && !"background-color".equals( property ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            if ( end >= css.length() || css.charAt( end ) == '}' )
+            {
+                return false;
+            }
+            start = end + 1;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return css background position of sprite coordinate
+     *
+     * @param coordinate coordinate of sprite in sheet
+     * @return background position
+     */
+    private static String position( int coordinate )
+    {
+        return coordinate == 0 ? "0" : "-" + coordinate + "px";
+    }
+
+    /**
+     * Return <code>true</code> if url has scheme (<code>http:</code>, <code>https:</code>, ...) or is protocol
+     * relative
+     *
+     * @param url url to check
+     * @return <code>true</code> if url is absolute
+     */
+    private static boolean isAbsoluteUrl( String url )
+    {
+        if ( url.startsWith( "//" ) )
+        {
+            return true;
+        }
+
+        for ( int i = 0; i < url.length(); i++ )
+        {
+            char c = url.charAt( i );
+            if ( c == ':' )
+            {
+                return i > 1;
+            }
+            if ( !( Character.isLetterOrDigit( c ) || c == '+' || c == '.' || c == '-' ) )
+            {
+                return false;
+            }
+        }
+
+        return false;
     }
 
     /**
      * Return list of {@link CSSConfig} objects which contains name of output css file and source css files
      *
      * @param pathToXml path to configuration xml
+     * @param baseDir   project base directory
+     * @param session   session cache of external css
      * @return list of {@link CSSConfig} objects
      * @throws Exception if exception occurs
      */
-    private static List<CSSConfig> getCssConfigList( String pathToXml, String baseDir ) throws Exception
+    private static List<CSSConfig> getCssConfigList( String pathToXml, String baseDir, SessionCache session ) throws Exception
     {
         List<CSSConfig> list = new ArrayList<>();
 
@@ -269,16 +932,19 @@ public class CssOptimizer
                 cssConfig.setMinfy( Boolean.valueOf( minfy ) );
             }
 
+            cssConfig.setMode( OptimizationMode.parse( group.getAttribute( "mode" ), null ) );
+            cssConfig.setSprite( Boolean.valueOf( group.getAttribute( "sprite" ) ) );
+
             // add external css
             NodeList cssList = group.getElementsByTagName( "external-css" );
             for ( int j = 0; j < cssList.getLength(); j++ )
             {
                 Element cs = ( Element ) cssList.item( j );
 
-                InputStream cssExternalResource = CssOptimizer.class.getResourceAsStream( cs.getTextContent() );
-                if ( cssExternalResource != null )
+                ExternalCss externalCss = session.getExternalCss( cs.getTextContent() );
+                if ( externalCss != null )
                 {
-                    cssConfig.addExternalCss( CharStreams.toString( new InputStreamReader( cssExternalResource, Charsets.UTF_8 ) ) );
+                    cssConfig.addExternalCss( externalCss );
                 }
                 else
                 {
@@ -311,6 +977,79 @@ public class CssOptimizer
         return list;
     }
 
+    /**
+     * Position of image url in stylesheet
+     */
+    private static class UrlToken
+    {
+        private final int start;
+
+        private final int end;
+
+        private final String value;
+
+        /**
+         * End of declaration if url can be replaced by sprite, -1 otherwise
+         */
+        private final int declarationEnd;
+
+        private UrlToken( int start, int end, String value, int declarationEnd )
+        {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+            this.declarationEnd = declarationEnd;
+        }
+    }
+
+    /**
+     * Resolves and encodes image of one distinct url of stylesheet
+     */
+    private static class ImageTask
+            implements Callable<Void>
+    {
+        private final File directory;
+
+        private final String imgSrc;
+
+        private final OptimizerContext context;
+
+        private final OptimizerReport.Group report;
+
+        private final Map<File, SpritePacker.Sprite> sprites;
+
+        /**
+         * All urls of image can be replaced by sprite, image does not need to be encoded then
+         */
+        private boolean spriteOnly = true;
+
+        private File file;
+
+        private String dataUri;
+
+        private ImageTask( File directory, String imgSrc, OptimizerContext context, OptimizerReport.Group report,
+                           Map<File, SpritePacker.Sprite> sprites )
+        {
+            this.directory = directory;
+            this.imgSrc = imgSrc;
+            this.context = context;
+            this.report = report;
+            this.sprites = sprites;
+        }
+
+        @Override
+        public Void call() throws IOException
+        {
+            file = context.getImageResolver().resolve( directory, imgSrc );
+            if ( file != null && !( spriteOnly && sprites.containsKey( file ) ) )
+            {
+                dataUri = context.getImageInliner().getDataUri( file, report );
+            }
+
+            return null;
+        }
+    }
+
     /**
      * CSS configuration class
      */
@@ -327,15 +1066,25 @@ public class CssOptimizer
         private List<String> cssList = new ArrayList<>();
 
         /**
-         * List of absolute paths to external css to minify
+         * List of external css to minify, content is loaded only while group is processed
          */
-        private List<String> externalCssList = new ArrayList<>();
+        private List<ExternalCss> externalCssList = new ArrayList<>();
 
         /**
          * Flag for minifying css
          */
         private Boolean minfy;
 
+        /**
+         * Optimization mode of group, <code>null</code> if mode of the build applies
+         */
+        private OptimizationMode mode;
+
+        /**
+         * Pack background images into sprite sheets instead of inlining them
+         */
+        private boolean sprite;
+
         public void setCssOutputName( String cssOutputName )
         {
             this.cssOutputName = cssOutputName;
@@ -356,12 +1105,12 @@ public class CssOptimizer
             cssList.add( css );
         }
 
-        public List<String> getExternalCssList()
+        public List<ExternalCss> getExternalCssList()
         {
             return externalCssList;
         }
 
-        public void addExternalCss( String externalCss )
+        public void addExternalCss( ExternalCss externalCss )
         {
             externalCssList.add( externalCss );
         }
@@ -376,6 +1125,26 @@ public class CssOptimizer
             this.minfy = minfy;
         }
 
+        public OptimizationMode getMode()
+        {
+            return mode;
+        }
+
+        public void setMode( OptimizationMode mode )
+        {
+            this.mode = mode;
+        }
+
+        public boolean isSprite()
+        {
+            return sprite;
+        }
+
+        public void setSprite( boolean sprite )
+        {
+            this.sprite = sprite;
+        }
+
         @Override
         public String toString()
         {
@@ -384,6 +1153,8 @@ public class CssOptimizer
                     ", cssList=" + cssList +
                     ", externalCssList=" + externalCssList +
                     ", minfy=" + minfy +
+                    ", mode=" + mode +
+                    ", sprite=" + sprite +
                     '}';
         }
     }
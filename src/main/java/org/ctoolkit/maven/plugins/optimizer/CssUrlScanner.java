@@ -0,0 +1,251 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+/**
+ * <p>Single pass scanner of <code>url()</code> tokens in css.</p>
+ * <p>Scanner walks css only once and finds every double-quoted, single-quoted and unquoted <code>url()</code> token.
+ * Comments and strings outside of <code>url()</code> are skipped. Usage is similar to
+ * {@link java.util.regex.Matcher} - call {@link #find()} until it returns <code>false</code> and read position
+ * and value of found token.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class CssUrlScanner
+{
+    private final CharSequence css;
+
+    private final int length;
+
+    private int position;
+
+    private int start;
+
+    private int end;
+
+    private int valueStart;
+
+    private int valueEnd;
+
+    /**
+     * Create scanner of css
+     *
+     * @param css css to scan
+     */
+    public CssUrlScanner( CharSequence css )
+    {
+        this.css = css;
+        this.length = css.length();
+    }
+
+    /**
+     * Find next <code>url()</code> token
+     *
+     * @return <code>true</code> if token has been found, <code>false</code> if end of css has been reached
+     */
+    public boolean find()
+    {
+        while ( position < length )
+        {
+            char c = css.charAt( position );
+
+            if ( c == '/' && position + 1 < length && css.charAt( position + 1 ) == '*' )
+            {
+                position = skipComment( position + 2 );
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                position = skipString( position + 1, c );
+            }
+            else if ( ( c == 'u' || c == 'U' ) && isUrlStart( position ) )
+            {
+                if ( scanUrl( position ) )
+                {
+                    position = end;
+                    return true;
+                }
+
+                position += 4;
+            }
+            else
+            {
+                position++;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return start index of last found token
+     *
+     * @return index of <code>u</code> in <code>url(</code>
+     */
+    public int start()
+    {
+        return start;
+    }
+
+    /**
+     * Return end index of last found token
+     *
+     * @return index after closing parenthesis
+     */
+    public int end()
+    {
+        return end;
+    }
+
+    /**
+     * Return value of last found token without quotes and surrounding white spaces
+     *
+     * @return url value
+     */
+    public String value()
+    {
+        return css.subSequence( valueStart, valueEnd ).toString();
+    }
+
+    private boolean isUrlStart( int index )
+    {
+        if ( index + 4 > length
+                || Character.toLowerCase( css.charAt( index + 1 ) ) != 'r'
+                || Character.toLowerCase( css.charAt( index + 2 ) ) != 'l'
+                || css.charAt( index + 3 ) != '(' )
+        {
+            return false;
+        }
+
+        // url must not be tail of another identifier
+        if ( index > 0 )
+        {
+            char previous = css.charAt( index - 1 );
+            return !( Character.isLetterOrDigit( previous ) || previous == '-' || previous == '_' || previous == '\\' );
+        }
+
+        return true;
+    }
+
+    private boolean scanUrl( int index )
+    {
+        int i = skipWhitespace( index + 4 );
+        if ( i >= length )
+        {
+            return false;
+        }
+
+        char c = css.charAt( i );
+        if ( c == '"' || c == '\'' )
+        {
+            int close = skipString( i + 1, c );
+            if ( close > length || css.charAt( close - 1 ) != c )
+            {
+                return false;
+            }
+
+            valueStart = i + 1;
+            valueEnd = close - 1;
+            i = skipWhitespace( close );
+        }
+        else
+        {
+            valueStart = i;
+            while ( i < length && css.charAt( i ) != ')' )
+            {
+                i += css.charAt( i ) == '\\' ? 2 : 1;
+            }
+
+            valueEnd = Math.min( i, length );
+            while ( valueEnd > valueStart && Character.isWhitespace( css.charAt( valueEnd - 1 ) ) )
+            {
+                valueEnd--;
+            }
+        }
+
+        if ( i >= length || css.charAt( i ) != ')' )
+        {
+            return false;
+        }
+
+        start = index;
+        end = i + 1;
+
+        return true;
+    }
+
+    /**
+     * Skip string content
+     *
+     * @param index index after opening quote
+     * @param quote quote character
+     * @return index after closing quote or length of css if string is not closed
+     */
+    private int skipString( int index, char quote )
+    {
+        int i = index;
+        while ( i < length )
+        {
+            char c = css.charAt( i );
+            if ( c == '\\' )
+            {
+                i += 2;
+            }
+            else if ( c == quote )
+            {
+                return i + 1;
+            }
+            else if ( c == '\n' )
+            {
+                // unclosed string ends at new line
+                return i;
+            }
+            else
+            {
+                i++;
+            }
+        }
+
+        return length;
+    }
+
+    private int skipComment( int index )
+    {
+        for ( int i = index; i + 1 < length; i++ )
+        {
+            if ( css.charAt( i ) == '*' && css.charAt( i + 1 ) == '/' )
+            {
+                return i + 2;
+            }
+        }
+
+        return length;
+    }
+
+    private int skipWhitespace( int index )
+    {
+        int i = index;
+        while ( i < length && Character.isWhitespace( css.charAt( i ) ) )
+        {
+            i++;
+        }
+
+        return i;
+    }
+}
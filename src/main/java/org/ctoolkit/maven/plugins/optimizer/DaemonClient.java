@@ -0,0 +1,560 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.css.SourceCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.javascript.jscomp.CompilationLevel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Client of {@link CompileDaemon}.</p>
+ * <p>Daemon is started on first use with class path of the plugin and is shared by all maven invocations of the
+ * same plugin version. Version is derived from plugin version, content hash of plugin classes and all class path
+ * entries, so rebuilt plugin never talks to daemon started from its previous build. Concurrent starts (parallel modules, parallel maven
+ * invocations) are serialized by file lock. If daemon can not be started or reached or does not respond in time,
+ * compilation falls back to local engines.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class DaemonClient
+{
+    private static Logger log = Logger.getLogger( DaemonClient.class.getName() );
+
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    /**
+     * Maximum time to wait for response of compile request in milliseconds, compilation continues locally after it
+     */
+    static final int READ_TIMEOUT = 300000;
+
+    /**
+     * Maximum time to wait for daemon to start in milliseconds
+     */
+    private static final long START_TIMEOUT = 60000;
+
+    /**
+     * Serializes starts within JVM, file lock can not be acquired twice by one JVM
+     */
+    private static final Object START_LOCK = new Object();
+
+    private final File directory;
+
+    private final long idleTimeout;
+
+    private final List<String> classPath;
+
+    private final String version;
+
+    private final File stateFile;
+
+    /**
+     * State of running daemon, <code>null</code> until daemon is reached
+     */
+    private volatile Properties state;
+
+    /**
+     * Set when daemon could not be used, all further compilations are local
+     */
+    private volatile boolean disabled;
+
+    /**
+     * Create daemon client
+     *
+     * @param directory   directory of daemon state files and logs
+     * @param idleTimeout idle time in seconds after which started daemon exits
+     */
+    public DaemonClient( File directory, long idleTimeout )
+    {
+        this.directory = directory;
+        this.idleTimeout = idleTimeout;
+        this.classPath = getClassPath();
+        this.version = getVersion( classPath );
+        this.stateFile = new File( directory, "daemon-" + version + ".properties" );
+    }
+
+    /**
+     * Create java-script engine compiling in daemon
+     *
+     * @param session session cache used by local fallback compilation
+     * @return java-script engine
+     */
+    public ClosureJsEngine createJsEngine( SessionCache session )
+    {
+        return new JsEngine( session );
+    }
+
+    /**
+     * Create css engine compiling in daemon
+     *
+     * @return css engine
+     */
+    public ClosureCssEngine createCssEngine()
+    {
+        return new CssEngine();
+    }
+
+    /**
+     * Send request to daemon, daemon is started if it is not running
+     *
+     * @param request request to send
+     * @return response of daemon
+     * @throws IOException if daemon could not be reached
+     */
+    private <T> T execute( Request<T> request ) throws IOException
+    {
+        if ( disabled )
+        {
+            throw new IOException( "Compile daemon is disabled" );
+        }
+
+        Properties current = state;
+        if ( current == null )
+        {
+            current = start();
+        }
+
+        try
+        {
+            return send( current, request );
+        }
+        catch ( CompilationException | SocketTimeoutException e )
+        {
+            // retry would fail the same way or wait again, caller compiles locally
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            // daemon may have exited in the meantime, start it again and retry once
+            state = null;
+            return send( start(), request );
+        }
+    }
+
+    private <T> T send( Properties current, Request<T> request ) throws IOException
+    {
+        try ( Socket socket = new Socket() )
+        {
+            socket.connect( new InetSocketAddress( InetAddress.getLoopbackAddress(), Integer.parseInt( current.getProperty( "port" ) ) ), CONNECT_TIMEOUT );
+            socket.setSoTimeout( request.timeout );
+
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+            out.writeUTF( current.getProperty( "token" ) );
+            out.writeUTF( version );
+            out.writeUTF( request.command );
+            request.write( out );
+            out.flush();
+
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            String status = in.readUTF();
+            if ( CompileDaemon.STATUS_REFUSED.equals( status ) )
+            {
+                throw new IOException( "Compile daemon of version " + in.readUTF() + " refused request" );
+            }
+            if ( CompileDaemon.STATUS_FAILED.equals( status ) )
+            {
+                throw new CompilationException( CompileDaemon.readString( in ) );
+            }
+
+            return request.read( in );
+        }
+    }
+
+    /**
+     * Return state of running daemon, start daemon if it is not running
+     *
+     * @return state of running daemon
+     * @throws IOException if daemon could not be started
+     */
+    private Properties start() throws IOException
+    {
+        Properties current = ping();
+        if ( current != null )
+        {
+            return current;
+        }
+
+        synchronized ( START_LOCK )
+        {
+            CompileDaemon.createPrivateDirectory( directory );
+
+            File lockFile = new File( directory, "daemon-" + version + ".lock" );
+            try ( FileChannel channel = FileChannel.open( lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE ) )
+            {
+                FileLock lock = channel.lock();
+                try
+                {
+                    // another process may have started daemon while we were waiting for lock
+                    current = ping();
+                    if ( current != null )
+                    {
+                        return current;
+                    }
+
+                    return launch();
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Launch daemon process and wait until it responds
+     *
+     * @return state of started daemon
+     * @throws IOException if daemon could not be started
+     */
+    private Properties launch() throws IOException
+    {
+        List<String> command = Arrays.asList(
+                System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java",
+                "-cp", Joiner.on( File.pathSeparator ).join( classPath ),
+                CompileDaemon.class.getName(),
+                stateFile.getAbsolutePath(),
+                String.valueOf( idleTimeout ),
+                version );
+
+        File logFile = new File( directory, "daemon-" + version + ".log" );
+        log.info( "Starting compile daemon, log: " + logFile.getAbsolutePath() );
+
+        stateFile.delete();
+        Process process = new ProcessBuilder( command )
+                .redirectErrorStream( true )
+                .redirectOutput( ProcessBuilder.Redirect.appendTo( logFile ) )
+                .start();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while ( System.currentTimeMillis() < deadline )
+        {
+            Properties current = ping();
+            if ( current != null )
+            {
+                return current;
+            }
+
+            try
+            {
+                throw new IOException( "Compile daemon exited with code " + process.exitValue() + ", see " + logFile.getAbsolutePath() );
+            }
+            catch ( IllegalThreadStateException e )
+            {
+                // still running
+            }
+
+            try
+            {
+                Thread.sleep( 100 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while waiting for compile daemon" );
+            }
+        }
+
+        process.destroy();
+        throw new IOException( "Compile daemon did not start in " + START_TIMEOUT / 1000 + " s, see " + logFile.getAbsolutePath() );
+    }
+
+    /**
+     * Check if daemon described by state file is running and serves this version
+     *
+     * @return state of running daemon or <code>null</code> if it is not running
+     */
+    private Properties ping()
+    {
+        Properties current = CompileDaemon.readStateFile( stateFile );
+        if ( current == null || !version.equals( current.getProperty( "version" ) ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            send( current, new Request<Boolean>( CompileDaemon.COMMAND_PING, CONNECT_TIMEOUT )
+            {
+                @Override
+                Boolean read( DataInputStream in )
+                {
+                    return true;
+                }
+            } );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            return null;
+        }
+
+        state = current;
+        return current;
+    }
+
+    /**
+     * Log reason why daemon could not be used and disable it, so next compilations do not wait for it again
+     *
+     * @param e cause
+     */
+    private void fallback( IOException e )
+    {
+        if ( !disabled )
+        {
+            disabled = true;
+            log.log( Level.WARNING, "Compile daemon is not available, compiling locally", e );
+        }
+    }
+
+    /**
+     * Return class path of plugin
+     *
+     * @return class path entries
+     */
+    private static List<String> getClassPath()
+    {
+        List<String> entries = new ArrayList<>();
+
+        ClassLoader loader = CompileDaemon.class.getClassLoader();
+        if ( loader instanceof URLClassLoader )
+        {
+            for ( URL url : ( ( URLClassLoader ) loader ).getURLs() )
+            {
+                try
+                {
+                    entries.add( new File( url.toURI() ).getAbsolutePath() );
+                }
+                catch ( URISyntaxException | IllegalArgumentException e )
+                {
+                    log.fine( "Skipping class path entry " + url );
+                }
+            }
+        }
+
+        if ( entries.isEmpty() )
+        {
+            entries.addAll( Arrays.asList( System.getProperty( "java.class.path" ).split( File.pathSeparator ) ) );
+        }
+
+        return entries;
+    }
+
+    /**
+     * Return version of plugin class path - hash of plugin version, content hash of plugin classes and path of every
+     * class path entry
+     *
+     * @param classPath class path entries
+     * @return version
+     */
+    private static String getVersion( List<String> classPath )
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString( BuildCache.getPluginVersion(), Charsets.UTF_8 );
+        // plugin jar or class files if plugin runs from classes directory
+        hasher.putString( BuildCache.getPluginHash(), Charsets.UTF_8 );
+
+        for ( String entry : classPath )
+        {
+            hasher.putString( entry, Charsets.UTF_8 );
+        }
+
+        return hasher.hash().toString().substring( 0, 16 );
+    }
+
+    /**
+     * Request sent to daemon
+     */
+    private abstract static class Request<T>
+    {
+        private final String command;
+
+        private final int timeout;
+
+        Request( String command )
+        {
+            this( command, READ_TIMEOUT );
+        }
+
+        Request( String command, int timeout )
+        {
+            this.command = command;
+            this.timeout = timeout;
+        }
+
+        void write( DataOutputStream out ) throws IOException
+        {
+        }
+
+        abstract T read( DataInputStream in ) throws IOException;
+    }
+
+    /**
+     * Compilation failed in daemon, it would fail locally too
+     */
+    private static class CompilationException
+            extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        CompilationException( String message )
+        {
+            super( message );
+        }
+    }
+
+    private class JsEngine
+            extends ClosureJsEngine
+    {
+        JsEngine( SessionCache session )
+        {
+            super( session );
+        }
+
+        @Override
+        public Output compile( List<String> inputPaths, final CompilationLevel level ) throws IOException
+        {
+            final Map<String, String> sources = readSources( inputPaths );
+            try
+            {
+                return execute( new Request<Output>( CompileDaemon.COMMAND_JS )
+                {
+                    @Override
+                    void write( DataOutputStream out ) throws IOException
+                    {
+                        out.writeUTF( level.name() );
+                        CompileDaemon.writeSources( out, sources );
+                    }
+
+                    @Override
+                    Output read( DataInputStream in ) throws IOException
+                    {
+                        return CompileDaemon.readOutput( in );
+                    }
+                } );
+            }
+            catch ( IOException e )
+            {
+                fallback( e );
+                return compileSources( sources, level );
+            }
+        }
+
+        @Override
+        public Output compileModules( Map<String, List<String>> modules, final CompilationLevel level ) throws IOException
+        {
+            final Map<String, Map<String, String>> sources = readModuleSources( modules );
+            try
+            {
+                return execute( new Request<Output>( CompileDaemon.COMMAND_JS_MODULES )
+                {
+                    @Override
+                    void write( DataOutputStream out ) throws IOException
+                    {
+                        out.writeUTF( level.name() );
+                        out.writeInt( sources.size() );
+                        for ( Map.Entry<String, Map<String, String>> module : sources.entrySet() )
+                        {
+                            out.writeUTF( module.getKey() );
+                            CompileDaemon.writeSources( out, module.getValue() );
+                        }
+                    }
+
+                    @Override
+                    Output read( DataInputStream in ) throws IOException
+                    {
+                        return CompileDaemon.readOutput( in );
+                    }
+                } );
+            }
+            catch ( IOException e )
+            {
+                fallback( e );
+                return compileModuleSources( sources, level );
+            }
+        }
+    }
+
+    private class CssEngine
+            extends ClosureCssEngine
+    {
+        @Override
+        public String compile( final List<SourceCode> sources, final boolean simplify ) throws IOException
+        {
+            try
+            {
+                return execute( new Request<String>( CompileDaemon.COMMAND_CSS )
+                {
+                    @Override
+                    void write( DataOutputStream out ) throws IOException
+                    {
+                        out.writeBoolean( simplify );
+                        out.writeInt( sources.size() );
+                        for ( SourceCode source : sources )
+                        {
+                            out.writeUTF( source.getFileName() );
+                            CompileDaemon.writeString( out, source.getFileContents() );
+                        }
+                    }
+
+                    @Override
+                    String read( DataInputStream in ) throws IOException
+                    {
+                        return CompileDaemon.readString( in );
+                    }
+                } );
+            }
+            catch ( CompilationException e )
+            {
+                throw new IOException( e.getMessage(), e );
+            }
+            catch ( IOException e )
+            {
+                fallback( e );
+                return super.compile( sources, simplify );
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * <p>Build-wide cache of image data URIs shared by all stylesheets and css groups.</p>
+ * <p>Data URI is keyed by canonical path of image together with its modification time and size, so an image
+ * referenced from many stylesheets is read and encoded only once, and a changed image is encoded again. Cache is
+ * bounded by total length of cached data URIs, least recently used data URIs are evicted first.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class DataUriCache
+{
+    private static Logger log = Logger.getLogger( DataUriCache.class.getName() );
+
+    /**
+     * Maximum total length of cached data URIs in characters, cache is disabled if less than 1
+     */
+    private final long capacity;
+
+    /**
+     * Data URIs in access order, least recently used first
+     */
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Create data URI cache
+     *
+     * @param capacity maximum total length of cached data URIs in characters, cache is disabled if less than 1
+     */
+    public DataUriCache( long capacity )
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create cache key of image
+     *
+     * @param image image file
+     * @return cache key composed of canonical path, modification time and size of image
+     * @throws IOException if canonical path could not be resolved
+     */
+    public String newKey( File image ) throws IOException
+    {
+        return image.getCanonicalPath() + '|' + image.lastModified() + '|' + image.length();
+    }
+
+    /**
+     * Return cached data URI
+     *
+     * @param key cache key
+     * @return data URI or <code>null</code> if it is not cached
+     */
+    public synchronized String get( String key )
+    {
+        String dataUri = entries.get( key );
+        if ( dataUri == null )
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+
+        return dataUri;
+    }
+
+    /**
+     * Put data URI to cache and evict least recently used data URIs exceeding capacity. Data URI longer than
+     * the whole capacity is not cached.
+     *
+     * @param key     cache key
+     * @param dataUri data URI
+     */
+    public synchronized void put( String key, String dataUri )
+    {
+        if ( dataUri.length() > capacity )
+        {
+            return;
+        }
+
+        String previous = entries.put( key, dataUri );
+        size += dataUri.length() - ( previous != null ? previous.length() : 0 );
+
+        Iterator<Map.Entry<String, String>> iterator = entries.entrySet().iterator();
+        while ( size > capacity && iterator.hasNext() )
+        {
+            size -= iterator.next().getValue().length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Log hit and miss counts of cache
+     */
+    public synchronized void logStatistics()
+    {
+        if ( hits + misses > 0 )
+        {
+            log.info( "Data URI cache: " + hits + " hits, " + misses + " misses, " + entries.size() + " images ("
+                    + size + " characters) cached" );
+        }
+    }
+}
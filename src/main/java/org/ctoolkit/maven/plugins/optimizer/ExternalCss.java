@@ -0,0 +1,134 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.css.SourceCode;
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.logging.Logger;
+
+/**
+ * <p>Lazy handle of external stylesheet located in class-path.</p>
+ * <p>Handle is shared by all css groups referencing the same resource, it keeps only resource location until a group
+ * is processed. Content is streamed from class-path on first {@link #acquire()} and strongly held only while at least
+ * one group using it is being processed, so groups processed in parallel share one copy. When the last group
+ * {@link #release()}s it, content is kept softly reachable - groups of modules built later reuse it without reading
+ * class-path again, but large vendor stylesheets never keep heap from being reclaimed under memory pressure, in which
+ * case content is simply read again.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ExternalCss
+{
+    private static Logger log = Logger.getLogger( ExternalCss.class.getName() );
+
+    /**
+     * Class-path resource of stylesheet
+     */
+    private final String resource;
+
+    private final URL url;
+
+    /**
+     * Number of groups currently using content
+     */
+    private int references;
+
+    /**
+     * Content of stylesheet, <code>null</code> if it is not used by any group
+     */
+    private SourceCode source;
+
+    /**
+     * Content of stylesheet released by all groups, kept for later groups until it is garbage collected
+     */
+    private SoftReference<SourceCode> released;
+
+    /**
+     * Create handle of external stylesheet, content is not read
+     *
+     * @param resource class-path resource of stylesheet
+     * @param url      location of resource
+     */
+    ExternalCss( String resource, URL url )
+    {
+        this.resource = resource;
+        this.url = url;
+    }
+
+    public String getResource()
+    {
+        return resource;
+    }
+
+    /**
+     * Return content of stylesheet, it is read unless it is used by another group or still kept from previous use.
+     * Every call has to be followed by {@link #release()} once the content is not needed anymore.
+     *
+     * @return stylesheet
+     * @throws IOException if stylesheet could not be read
+     */
+    public synchronized SourceCode acquire() throws IOException
+    {
+        if ( source == null && released != null )
+        {
+            source = released.get();
+            released = null;
+        }
+
+        if ( source == null )
+        {
+            try ( Reader reader = new InputStreamReader( url.openStream(), Charsets.UTF_8 ) )
+            {
+                source = new SourceCode( resource, CharStreams.toString( reader ) );
+            }
+            log.fine( "External css loaded: " + resource );
+        }
+
+        references++;
+        return source;
+    }
+
+    /**
+     * Release content of stylesheet acquired by {@link #acquire()}, content is kept only softly reachable if no other
+     * group is using it
+     */
+    public synchronized void release()
+    {
+        if ( references > 0 && --references == 0 )
+        {
+            released = new SoftReference<>( source );
+            source = null;
+            log.fine( "External css released: " + resource );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return resource;
+    }
+}
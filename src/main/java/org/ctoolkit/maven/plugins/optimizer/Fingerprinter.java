@@ -0,0 +1,274 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.ctoolkit.maven.plugins.util.OutputWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Fingerprints output file names with hash of their content.</p>
+ * <p>Output <code>style.min.css</code> is written as <code>style.min.&lt;hash&gt;.css</code>, so it can be served
+ * with long-lived immutable caching. Logical names are mapped to fingerprinted names in manifest properties file
+ * written to every output directory. Only configured number of the newest fingerprinted versions of every output
+ * is kept in output directory, older versions are deleted.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class Fingerprinter
+{
+    private static Logger log = Logger.getLogger( Fingerprinter.class.getName() );
+
+    /**
+     * Length of hash in file name
+     */
+    private static final int HASH_LENGTH = 16;
+
+    private final String manifestName;
+
+    private final int retention;
+
+    /**
+     * Fingerprinted names keyed by output directory and logical name
+     */
+    private final Map<File, Map<String, String>> manifests = new HashMap<>();
+
+    /**
+     * Create fingerprinter
+     *
+     * @param manifestName name of manifest file written to output directories
+     * @param retention    number of fingerprinted versions of every output kept in output directory, at least 1
+     */
+    public Fingerprinter( String manifestName, int retention )
+    {
+        this.manifestName = manifestName;
+        this.retention = Math.max( 1, retention );
+    }
+
+    /**
+     * Return fingerprinted file name - hash of content is inserted before extension
+     *
+     * @param fileName logical file name
+     * @param content  content of file
+     * @return fingerprinted file name
+     */
+    public String getFileName( String fileName, String content )
+    {
+        return insertHash( fileName, Hashing.sha256().hashString( content, Charsets.UTF_8 ).toString() );
+    }
+
+    /**
+     * Return fingerprinted file name of binary file (e.g. sprite sheet) - hash of content is inserted before extension
+     *
+     * @param fileName logical file name
+     * @param content  content of file
+     * @return fingerprinted file name
+     */
+    public String getFileName( String fileName, byte[] content )
+    {
+        return insertHash( fileName, Hashing.sha256().hashBytes( content ).toString() );
+    }
+
+    private static String insertHash( String fileName, String hexHash )
+    {
+        String hash = hexHash.substring( 0, HASH_LENGTH );
+
+        int dot = fileName.lastIndexOf( '.' );
+        if ( dot < 0 )
+        {
+            return fileName + "." + hash;
+        }
+
+        return fileName.substring( 0, dot ) + "." + hash + fileName.substring( dot );
+    }
+
+    /**
+     * Record fingerprinted file in manifest of its directory and delete versions exceeding retention
+     *
+     * @param directory       output directory
+     * @param fileName        logical file name
+     * @param fingerprintName fingerprinted file name
+     */
+    public void written( File directory, String fileName, String fingerprintName )
+    {
+        synchronized ( manifests )
+        {
+            Map<String, String> manifest = manifests.get( directory );
+            if ( manifest == null )
+            {
+                manifest = new HashMap<>();
+                manifests.put( directory, manifest );
+            }
+
+            manifest.put( fileName, fingerprintName );
+        }
+
+        cleanup( directory, fileName, fingerprintName );
+    }
+
+    /**
+     * Write manifests of all output directories. Entries of existing manifest which have not been written during
+     * this build are kept, so partial optimization does not lose them.
+     *
+     * @throws IOException if manifest could not be written
+     */
+    public void writeManifests() throws IOException
+    {
+        synchronized ( manifests )
+        {
+            for ( Map.Entry<File, Map<String, String>> entry : manifests.entrySet() )
+            {
+                File file = new File( entry.getKey(), manifestName );
+
+                Map<String, String> manifest = new TreeMap<>( read( file ) );
+                manifest.putAll( entry.getValue() );
+
+                StringBuilder sb = new StringBuilder();
+                for ( Map.Entry<String, String> name : manifest.entrySet() )
+                {
+                    sb.append( escape( name.getKey() ) ).append( '=' ).append( escape( name.getValue() ) ).append( '\n' );
+                }
+
+                if ( OutputWriter.write( file, sb ) )
+                {
+                    log.info( "Asset manifest written: " + file.getAbsolutePath() );
+                }
+            }
+
+            manifests.clear();
+        }
+    }
+
+    /**
+     * Delete the oldest fingerprinted versions of file (and their compressed siblings) exceeding retention
+     *
+     * @param directory       output directory
+     * @param fileName        logical file name
+     * @param fingerprintName current fingerprinted file name
+     */
+    private void cleanup( File directory, String fileName, String fingerprintName )
+    {
+        int dot = fileName.lastIndexOf( '.' );
+        String prefix = dot < 0 ? fileName : fileName.substring( 0, dot );
+        String suffix = dot < 0 ? "" : fileName.substring( dot );
+
+        final Pattern pattern = Pattern.compile( Pattern.quote( prefix ) + "\\.[0-9a-f]{" + HASH_LENGTH + "}" + Pattern.quote( suffix ) );
+
+        List<File> versions = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File file : files )
+        {
+            if ( !file.getName().equals( fingerprintName ) && pattern.matcher( file.getName() ).matches() )
+            {
+                versions.add( file );
+            }
+        }
+
+        // newest first
+        Collections.sort( versions, new Comparator<File>()
+        {
+            @Override
+            public int compare( File f1, File f2 )
+            {
+                return Long.compare( f2.lastModified(), f1.lastModified() );
+            }
+        } );
+
+        // current version counts towards retention
+        for ( File old : versions.subList( Math.min( versions.size(), retention - 1 ), versions.size() ) )
+        {
+            if ( old.delete() )
+            {
+                new File( old.getPath() + ".gz" ).delete();
+                log.info( "Old fingerprinted file deleted: " + old.getAbsolutePath() );
+            }
+        }
+    }
+
+    private static Map<String, String> read( File file ) throws IOException
+    {
+        Map<String, String> map = new HashMap<>();
+        if ( file.isFile() )
+        {
+            Properties properties = new Properties();
+            try ( InputStream in = new FileInputStream( file ) )
+            {
+                properties.load( in );
+            }
+
+            for ( String name : properties.stringPropertyNames() )
+            {
+                map.put( name, properties.getProperty( name ) );
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Escape characters with special meaning in properties file
+     *
+     * @param value value to escape
+     * @return escaped value
+     */
+    private static String escape( String value )
+    {
+        StringBuilder sb = new StringBuilder( value.length() );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '\\' || c == '=' || c == ':' || c == ' ' || c == '#' || c == '!' )
+            {
+                sb.append( '\\' ).append( c );
+            }
+            else if ( c < 0x20 || c > 0x7e )
+            {
+                // manifest is kept in ASCII, so it reads the same as UTF-8 and as properties file
+                sb.append( String.format( "\\u%04x", ( int ) c ) );
+            }
+            else
+            {
+                sb.append( c );
+            }
+        }
+
+        return sb.toString();
+    }
+}
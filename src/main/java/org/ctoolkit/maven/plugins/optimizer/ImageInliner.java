@@ -0,0 +1,416 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import org.ctoolkit.maven.plugins.util.Base64Encoder;
+import org.ctoolkit.maven.plugins.util.SvgEncoder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * <p>Inlines images and fonts into css as data URI.</p>
+ * <p>Image is not decoded at all - raw file bytes are read with single NIO read, MIME type is detected from magic
+ * bytes and bytes are base64 encoded. SVG images are minified and percent-encoded as text instead
+ * ({@link SvgEncoder}). Images and fonts larger than maximum size configured for their type are not inlined, fonts
+ * are inlined only if their maximum size is set. Encoded data URIs are kept in {@link DataUriCache}, so image
+ * referenced many times is read and encoded only once per build. If {@link ImageOptimizer} is set, PNG and JPEG
+ * images are optimized losslessly before they are encoded.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ImageInliner
+{
+    private static Logger log = Logger.getLogger( ImageInliner.class.getName() );
+
+    private static final String SVG = "image/svg+xml";
+
+    private static final String EOT = "application/vnd.ms-fontobject";
+
+    /**
+     * Maximum size of inlined image in bytes, no limit if less than 1
+     */
+    private final long maxSize;
+
+    /**
+     * Maximum size of inlined font in bytes, fonts are not inlined if less than 1
+     */
+    private final long fontMaxSize;
+
+    private final DataUriCache cache;
+
+    /**
+     * Optimizer of images, <code>null</code> if images are inlined as they are
+     */
+    private final ImageOptimizer optimizer;
+
+    /**
+     * Create image inliner
+     *
+     * @param maxSize maximum size of inlined image in bytes, no limit if less than 1
+     * @param cache   cache of encoded data URIs
+     */
+    public ImageInliner( long maxSize, DataUriCache cache )
+    {
+        this( maxSize, cache, null );
+    }
+
+    /**
+     * Create image inliner
+     *
+     * @param maxSize   maximum size of inlined image in bytes, no limit if less than 1
+     * @param cache     cache of encoded data URIs
+     * @param optimizer optimizer of images, <code>null</code> to inline images as they are
+     */
+    public ImageInliner( long maxSize, DataUriCache cache, ImageOptimizer optimizer )
+    {
+        this( maxSize, 0, cache, optimizer );
+    }
+
+    /**
+     * Create image and font inliner
+     *
+     * @param maxSize     maximum size of inlined image in bytes, no limit if less than 1
+     * @param fontMaxSize maximum size of inlined font in bytes, fonts are not inlined if less than 1
+     * @param cache       cache of encoded data URIs
+     * @param optimizer   optimizer of images, <code>null</code> to inline images as they are
+     */
+    public ImageInliner( long maxSize, long fontMaxSize, DataUriCache cache, ImageOptimizer optimizer )
+    {
+        this.maxSize = maxSize;
+        this.fontMaxSize = fontMaxSize;
+        this.cache = cache;
+        this.optimizer = optimizer;
+    }
+
+    public DataUriCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Return optimizer of images
+     *
+     * @return optimizer of images or <code>null</code> if images are not optimized
+     */
+    public ImageOptimizer getOptimizer()
+    {
+        return optimizer;
+    }
+
+    /**
+     * Return maximum size of inlined image in bytes, the same limit applies to images packed into sprite sheets
+     *
+     * @return maximum size of image in bytes, no limit if less than 1
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Return maximum size of inlined font in bytes
+     *
+     * @return maximum size of font in bytes, fonts are not inlined if less than 1
+     */
+    public long getFontMaxSize()
+    {
+        return fontMaxSize;
+    }
+
+    /**
+     * Append data URI of image to output
+     *
+     * @param image  image file
+     * @param output output to append data URI to
+     * @return <code>true</code> if data URI has been appended, <code>false</code> if image is larger than maximum
+     * size or its type is not recognized
+     * @throws IOException if image could not be read
+     */
+    public boolean inline( File image, StringBuilder output ) throws IOException
+    {
+        return inline( image, output, null );
+    }
+
+    /**
+     * Append data URI of image to output
+     *
+     * @param image  image file
+     * @param output output to append data URI to
+     * @param report report of group bytes saved by image optimization are added to, may be <code>null</code>
+     * @return <code>true</code> if data URI has been appended, <code>false</code> if image is larger than maximum
+     * size or its type is not recognized
+     * @throws IOException if image could not be read
+     */
+    public boolean inline( File image, StringBuilder output, OptimizerReport.Group report ) throws IOException
+    {
+        String dataUri = getDataUri( image, report );
+        if ( dataUri == null )
+        {
+            return false;
+        }
+
+        output.append( dataUri );
+
+        return true;
+    }
+
+    /**
+     * Return data URI of image. Method is thread safe, so images of stylesheet can be encoded in parallel.
+     *
+     * @param image  image file
+     * @param report report of group bytes saved by image optimization are added to, may be <code>null</code>
+     * @return data URI or <code>null</code> if image is larger than maximum size or its type is not recognized
+     * @throws IOException if image could not be read
+     */
+    public String getDataUri( File image, OptimizerReport.Group report ) throws IOException
+    {
+        long size = image.length();
+        if ( size > getMaxSize( false ) && size > getMaxSize( true ) )
+        {
+            log.info( "Image is larger than " + Math.max( maxSize, fontMaxSize ) + " bytes, it will not be inlined: " + image.getPath() );
+            return null;
+        }
+
+        String key = cache.newKey( image );
+        String dataUri = cache.get( key );
+
+        if ( dataUri == null )
+        {
+            ByteBuffer content = read( image );
+
+            String mimeType = detectMimeType( content );
+            if ( mimeType == null )
+            {
+                log.warning( "Unknown image type, it will not be inlined: " + image.getPath() );
+                return null;
+            }
+
+            boolean font = isFont( mimeType );
+            if ( font && fontMaxSize < 1 )
+            {
+                log.fine( "Inlining of fonts is not enabled, font will not be inlined: " + image.getPath() );
+                return null;
+            }
+            if ( size > getMaxSize( font ) )
+            {
+                log.info( ( font ? "Font" : "Image" ) + " is larger than " + ( font ? fontMaxSize : maxSize ) + " bytes, it will not be inlined: " + image.getPath() );
+                return null;
+            }
+
+            if ( SVG.equals( mimeType ) )
+            {
+                String svg = SvgEncoder.minify( Charsets.UTF_8.decode( content ).toString() );
+
+                StringBuilder sb = new StringBuilder( svg.length() + svg.length() / 8 + 19 );
+                sb.append( "data:" ).append( SVG ).append( ',' );
+                SvgEncoder.encode( svg, sb );
+
+                dataUri = sb.toString();
+                cache.put( key, dataUri );
+
+                return dataUri;
+            }
+
+            if ( optimizer != null )
+            {
+                byte[] optimized = optimizer.optimize( content.array(), mimeType );
+                if ( report != null )
+                {
+                    report.addSavedImageBytes( size - optimized.length );
+                }
+
+                content = ByteBuffer.wrap( optimized );
+                size = optimized.length;
+            }
+
+            StringBuilder sb = new StringBuilder( ( int ) ( Base64Encoder.encodedLength( size ) + mimeType.length() + 13 ) );
+            sb.append( "data:" ).append( mimeType ).append( ";base64," );
+            Base64Encoder.encode( content, sb );
+
+            dataUri = sb.toString();
+            cache.put( key, dataUri );
+        }
+
+        return dataUri;
+    }
+
+    /**
+     * Return maximum size of inlined file of given type
+     *
+     * @param font <code>true</code> for font, <code>false</code> for image
+     * @return maximum size in bytes
+     */
+    private long getMaxSize( boolean font )
+    {
+        if ( font )
+        {
+            return fontMaxSize > 0 ? fontMaxSize : -1;
+        }
+
+        return maxSize > 0 ? maxSize : Long.MAX_VALUE;
+    }
+
+    /**
+     * Return <code>true</code> if MIME type is font type
+     *
+     * @param mimeType MIME type
+     * @return <code>true</code> for font
+     */
+    private static boolean isFont( String mimeType )
+    {
+        return mimeType.startsWith( "font/" ) || EOT.equals( mimeType );
+    }
+
+    /**
+     * Detect MIME type of image or font from its magic bytes
+     *
+     * @param content image content
+     * @return MIME type of image or <code>null</code> if type is not recognized
+     */
+    static String detectMimeType( ByteBuffer content )
+    {
+        if ( startsWith( content, 0, 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a ) )
+        {
+            return "image/png";
+        }
+        if ( startsWith( content, 0, 0xff, 0xd8, 0xff ) )
+        {
+            return "image/jpeg";
+        }
+        if ( startsWith( content, 0, 'G', 'I', 'F', '8' ) )
+        {
+            return "image/gif";
+        }
+        if ( startsWith( content, 0, 'R', 'I', 'F', 'F' ) && startsWith( content, 8, 'W', 'E', 'B', 'P' ) )
+        {
+            return "image/webp";
+        }
+        if ( startsWith( content, 0, 'B', 'M' ) )
+        {
+            return "image/bmp";
+        }
+        if ( startsWith( content, 0, 0x00, 0x00, 0x01, 0x00 ) )
+        {
+            return "image/x-icon";
+        }
+        if ( startsWith( content, 0, 'w', 'O', 'F', 'F' ) )
+        {
+            return "font/woff";
+        }
+        if ( startsWith( content, 0, 'w', 'O', 'F', '2' ) )
+        {
+            return "font/woff2";
+        }
+        if ( startsWith( content, 0, 0x00, 0x01, 0x00, 0x00 ) || startsWith( content, 0, 't', 'r', 'u', 'e' ) )
+        {
+            return "font/ttf";
+        }
+        if ( startsWith( content, 0, 'O', 'T', 'T', 'O' ) )
+        {
+            return "font/otf";
+        }
+        if ( startsWith( content, 34, 'L', 'P' ) )
+        {
+            return EOT;
+        }
+        if ( isSvg( content ) )
+        {
+            return SVG;
+        }
+
+        return null;
+    }
+
+    /**
+     * Return <code>true</code> if content starts as XML document with <code>svg</code> root element
+     *
+     * @param content content
+     * @return <code>true</code> for SVG document
+     */
+    private static boolean isSvg( ByteBuffer content )
+    {
+        int length = Math.min( content.remaining(), 1024 );
+        StringBuilder prefix = new StringBuilder( length );
+        for ( int i = 0; i < length; i++ )
+        {
+            prefix.append( ( char ) ( content.get( content.position() + i ) & 0xff ) );
+        }
+
+        // UTF-8 byte order mark and leading whitespace
+        String text = prefix.toString();
+        if ( text.startsWith( "\u00ef\u00bb\u00bf" ) )
+        {
+            text = text.substring( 3 );
+        }
+        text = text.trim();
+
+        return text.startsWith( "<" ) && text.contains( "<svg" );
+    }
+
+    private static boolean startsWith( ByteBuffer content, int offset, int... magic )
+    {
+        if ( content.remaining() < offset + magic.length )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < magic.length; i++ )
+        {
+            if ( ( content.get( content.position() + offset + i ) & 0xff ) != magic[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Read whole file into buffer with single channel read
+     *
+     * @param file file to read
+     * @return buffer with file content ready to be read
+     * @throws IOException if file could not be read
+     */
+    private static ByteBuffer read( File file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( ( int ) channel.size() );
+            while ( buffer.hasRemaining() )
+            {
+                if ( channel.read( buffer ) < 0 )
+                {
+                    throw new EOFException( "Unexpected end of file: " + file.getPath() );
+                }
+            }
+
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
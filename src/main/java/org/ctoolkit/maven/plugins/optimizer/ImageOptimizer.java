@@ -0,0 +1,114 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import org.ctoolkit.maven.plugins.util.JpegOptimizer;
+import org.ctoolkit.maven.plugins.util.PngOptimizer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+/**
+ * <p>Lossless optimization of PNG and JPEG images before they are inlined into css or written as sprite sheet.</p>
+ * <p>PNG images are stripped of ancillary chunks and re-compressed with the best of all filter and deflate strategy
+ * combinations ({@link PngOptimizer}), JPEG images are stripped of metadata segments ({@link JpegOptimizer}).
+ * Results are cached by content hash in memory and in {@link BuildCache} directory, so image is optimized only once
+ * no matter how many times and under how many names it is used.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ImageOptimizer
+{
+    private static Logger log = Logger.getLogger( ImageOptimizer.class.getName() );
+
+    private static final byte[] UNCHANGED = new byte[0];
+
+    private final BuildCache cache;
+
+    /**
+     * Pool of PNG compression trials. Image encoded on fork/join pool joins its trials by running them, so trials
+     * do not wait for free worker.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Optimized images keyed by cache key, {@link #UNCHANGED} if image could not be made smaller
+     */
+    private final ConcurrentMap<String, byte[]> optimized = new ConcurrentHashMap<>();
+
+    /**
+     * Create image optimizer
+     *
+     * @param cache build cache of optimized images
+     * @param pool  pool of PNG compression trials
+     */
+    public ImageOptimizer( BuildCache cache, ForkJoinPool pool )
+    {
+        this.cache = cache;
+        this.pool = pool;
+    }
+
+    /**
+     * Optimize image
+     *
+     * @param content  content of image
+     * @param mimeType MIME type of image
+     * @return optimized image or the same content if image could not be made smaller
+     * @throws IOException if image could not be optimized
+     */
+    public byte[] optimize( byte[] content, String mimeType ) throws IOException
+    {
+        boolean png = "image/png".equals( mimeType );
+        if ( !png && !"image/jpeg".equals( mimeType ) )
+        {
+            return content;
+        }
+
+        BuildCache.Key key = cache.newKey( "image" ).putBytes( content );
+        byte[] result = optimized.get( key.getValue() );
+
+        if ( result == null )
+        {
+            result = cache.getBytes( key );
+        }
+
+        if ( result == null )
+        {
+            result = png ? PngOptimizer.optimize( content, pool ) : JpegOptimizer.optimize( content );
+            if ( result == null )
+            {
+                result = UNCHANGED;
+            }
+            else
+            {
+                log.fine( "Image optimized from " + content.length + " to " + result.length + " bytes" );
+            }
+
+            cache.putBytes( key, result );
+        }
+
+        optimized.put( key.getValue(), result );
+
+        return result.length > 0 ? result : content;
+    }
+}
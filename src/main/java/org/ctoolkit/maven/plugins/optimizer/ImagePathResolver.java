@@ -0,0 +1,181 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Resolves image paths referenced by <code>url()</code> in css to image files.</p>
+ * <p>Path is resolved and normalized against directory of the stylesheet, which costs a single file system lookup.
+ * Only if the image does not exist there, path is walked segment by segment, skipping segments which do not exist,
+ * the same way as plugin has always resolved images. Directory listings needed by the walk are cached for the whole
+ * build, so every directory is listed at most once.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ImagePathResolver
+{
+    /**
+     * Names of directory entries keyed by directory path
+     */
+    private final ConcurrentMap<Path, Set<String>> listings = new ConcurrentHashMap<>();
+
+    /**
+     * Resolve image path
+     *
+     * @param directory directory of stylesheet
+     * @param imagePath image path as referenced by <code>url()</code>
+     * @return image file or <code>null</code> if image could not be found
+     * @throws IOException if directory could not be listed
+     */
+    public File resolve( File directory, String imagePath ) throws IOException
+    {
+        String path = stripQuery( imagePath );
+        while ( path.startsWith( "/" ) )
+        {
+            path = path.substring( 1 );
+        }
+
+        if ( path.isEmpty() )
+        {
+            return null;
+        }
+
+        Path base = directory.toPath();
+        try
+        {
+            Path image = base.resolve( path ).normalize();
+            if ( Files.isRegularFile( image ) )
+            {
+                return image.toFile();
+            }
+        }
+        catch ( InvalidPathException e )
+        {
+            // not a valid file system path, try lenient resolution
+        }
+
+        return walk( base, path );
+    }
+
+    /**
+     * Walk path segment by segment, segments which do not exist are skipped
+     *
+     * @param base directory to start from
+     * @param path relative path
+     * @return image file or <code>null</code> if image could not be found
+     * @throws IOException if directory could not be listed
+     */
+    private File walk( Path base, String path ) throws IOException
+    {
+        Path current = base;
+
+        for ( String segment : path.split( "/" ) )
+        {
+            if ( "..".equals( segment ) )
+            {
+                current = current.getParent();
+                if ( current == null )
+                {
+                    return null;
+                }
+            }
+            else if ( list( current ).contains( segment ) )
+            {
+                current = current.resolve( segment );
+            }
+
+            if ( Files.isRegularFile( current ) )
+            {
+                return current.toFile();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Forget cached directory listings, so files created since listing are found
+     */
+    public void clear()
+    {
+        listings.clear();
+    }
+
+    /**
+     * Return names of directory entries. Directory is listed only once per build.
+     *
+     * @param directory directory to list
+     * @return names of directory entries, empty if path is not a directory
+     * @throws IOException if directory could not be listed
+     */
+    private Set<String> list( Path directory ) throws IOException
+    {
+        Set<String> names = listings.get( directory );
+        if ( names == null )
+        {
+            names = new HashSet<>();
+            if ( Files.isDirectory( directory ) )
+            {
+                try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory ) )
+                {
+                    for ( Path entry : stream )
+                    {
+                        names.add( entry.getFileName().toString() );
+                    }
+                }
+            }
+
+            names = Collections.unmodifiableSet( names );
+            listings.putIfAbsent( directory, names );
+        }
+
+        return names;
+    }
+
+    private static String stripQuery( String path )
+    {
+        int end = path.length();
+
+        int query = path.indexOf( '?' );
+        if ( query >= 0 )
+        {
+            end = query;
+        }
+
+        int fragment = path.indexOf( '#' );
+        if ( fragment >= 0 && fragment < end )
+        {
+            end = fragment;
+        }
+
+        return path.substring( 0, end );
+    }
+}
@@ -19,9 +19,8 @@
 
 package org.ctoolkit.maven.plugins.optimizer;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
-import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.common.base.Joiner;
+import com.google.javascript.jscomp.CompilationLevel;
 import org.apache.maven.settings.Settings;
 import org.ctoolkit.maven.plugins.util.FileHelper;
 import org.w3c.dom.Document;
@@ -31,9 +30,16 @@ import org.w3c.dom.NodeList;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
-import java.security.Permission;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +47,12 @@ import java.util.logging.Logger;
  * <p>JsOptimizer does followings:</p>
  * <ul>
  * <li>minify and merge all js files defined in group</li>
+ * <li>add only those closure library files, which are transitively required (<code>goog.require</code>)
+ * by java-scripts of group</li>
+ * <li>optionally compile all groups at once - if <code>common</code> element has <code>name</code> attribute,
+ * closure library and common java-scripts are compiled into shared base output file and every group output
+ * contains only its own code. Modules are compiled in mode of <code>common</code> element, group without any
+ * existing java-script file is skipped.</li>
  * </ul>
  * <p/>
  * <p>Example of configuration xml</p>
@@ -50,7 +62,8 @@ import java.util.logging.Logger;
  *          &lt;!-- Path to common project java-script. This file will be appended to every group --&gt;
  *          &lt;js&gt;src/main/webapp/scripts/script.js&lt;/js&gt;
  *      &lt;/common&gt;
- *      &lt;group name="script.min.css"&gt; &lt;!-- Output java-script file name --&gt;
+ *      &lt;!-- Output java-script file name, optional mode overrides optimization mode of the build --&gt;
+ *      &lt;group name="script.min.css" mode="simple"&gt;
  *          &lt;!-- Path to project java-script --&gt;
  *          &lt;js&gt;src/main/webapp/scripts/script.js&lt;/js&gt;
  *      &lt;/group&gt;
@@ -69,93 +82,33 @@ public class JsOptimizer
     private static String closureRoot = new File( JsOptimizer.class.getResource( "/org/ctoolkit/maven/plugins/optimizer/gc_closure/goog/base.js" ).getPath() ).getParent();
 
     /**
-     * Closure library holder list
-     */
-    private static List<String> closureLibraryList = new ArrayList<String>();
-
-    /**
-     * Init closure libraries
+     * Process js optimization. Groups are optimized concurrently on the worker pool of the context, results
+     * are reported in order of groups in configuration xml.
+     *
+     * @param pathToXml    path to java-script configuration xml
+     * @param jsOutputPath java-script output path
+     * @param settings     maven {@link Settings}
+     * @param context      optimizer context
      */
-    static
+    public static void process( String pathToXml, String jsOutputPath, Settings settings, OptimizerContext context )
     {
-        addClosureLib( "base.js" );
-        addClosureLib( "dom" + File.separator + "dom.js" );
-        addClosureLib( "array" + File.separator + "array.js" );
-        addClosureLib( "dom" + File.separator + "tagname.js" );
-        addClosureLib( "dom" + File.separator + "classes.js" );
-        addClosureLib( "math" + File.separator + "coordinate.js" );
-        addClosureLib( "math" + File.separator + "size.js" );
-        addClosureLib( "object" + File.separator + "object.js" );
-        addClosureLib( "string" + File.separator + "string.js" );
-        addClosureLib( "useragent" + File.separator + "useragent.js" );
-        addClosureLib( "asserts" + File.separator + "asserts.js" );
-        addClosureLib( "debug" + File.separator + "error.js" );
-        addClosureLib( "net" + File.separator + "xhrio.js" );
-        addClosureLib( "debug" + File.separator + "logger.js" );
-        addClosureLib( "debug" + File.separator + "entrypointregistry.js" );
-        addClosureLib( "debug" + File.separator + "errorhandlerweakdep.js" );
-        addClosureLib( "events" + File.separator + "eventtarget.js" );
-        addClosureLib( "json" + File.separator + "json.js" );
-        addClosureLib( "net" + File.separator + "errorcode.js" );
-        addClosureLib( "net" + File.separator + "eventtype.js" );
-        addClosureLib( "net" + File.separator + "httpstatus.js" );
-        addClosureLib( "net" + File.separator + "xmlhttp.js" );
-        addClosureLib( "net" + File.separator + "xhrmonitor.js" );
-        addClosureLib( "structs" + File.separator + "structs.js" );
-        addClosureLib( "structs" + File.separator + "map.js" );
-        addClosureLib( "uri" + File.separator + "utils.js" );
-        addClosureLib( "uri" + File.separator + "uri.js" );
-        addClosureLib( "debug" + File.separator + "logbuffer.js" );
-        addClosureLib( "debug" + File.separator + "logrecord.js" );
-        addClosureLib( "disposable" + File.separator + "disposable.js" );
-        addClosureLib( "events" + File.separator + "events.js" );
-        addClosureLib( "timer" + File.separator + "timer.js" );
-        addClosureLib( "net" + File.separator + "wrapperxmlhttpfactory.js" );
-        addClosureLib( "iter" + File.separator + "iter.js" );
-        addClosureLib( "disposable" + File.separator + "idisposable.js" );
-        addClosureLib( "events" + File.separator + "browserevent.js" );
-        addClosureLib( "events" + File.separator + "event.js" );
-        addClosureLib( "events" + File.separator + "eventwrapper.js" );
-        addClosureLib( "events" + File.separator + "pools.js" );
-        addClosureLib( "net" + File.separator + "xmlhttpfactory.js" );
-        addClosureLib( "debug" + File.separator + "debug.js" );
-        addClosureLib( "structs" + File.separator + "set.js" );
-        addClosureLib( "dom" + File.separator + "browserfeature.js" );
-        addClosureLib( "reflect" + File.separator + "reflect.js" );
-        addClosureLib( "events" + File.separator + "listener.js" );
-        addClosureLib( "structs" + File.separator + "simplepool.js" );
-        addClosureLib( "useragent" + File.separator + "jscript.js" );
-        addClosureLib( "events" + File.separator + "browserfeature.js" );
-        addClosureLib( "events" + File.separator + "eventtype.js" );
-        addClosureLib( "fx" + File.separator + "fx.js" );
-        addClosureLib( "fx" + File.separator + "dom.js" );
-        addClosureLib( "fx" + File.separator + "animation.js" );
-        addClosureLib( "fx" + File.separator + "easing.js" );
-        addClosureLib( "color" + File.separator + "color.js" );
-        addClosureLib( "style" + File.separator + "style.js" );
-        addClosureLib( "color" + File.separator + "names.js" );
-        addClosureLib( "math" + File.separator + "math.js" );
-        addClosureLib( "math" + File.separator + "box.js" );
-        addClosureLib( "math" + File.separator + "rect.js" );
-        addClosureLib( "net" + File.separator + "cookies.js" );
+        process( pathToXml, jsOutputPath, settings, context, null );
     }
 
-    // Closure arguments
-    private static final String ARG_MANAGE_CLOSURE_DEPENDENCIES = "--manage_closure_dependencies";
-    private static final String ARG_COMPILATION_LEVEL = "--compilation_level";
-    private static final String ARG_JS_OUTPUT_FILE = "--js_output_file";
-    private static final String ARG_JS = "--js";
-
     /**
-     * Process js optimization
+     * Process js optimization of groups affected by changed files. If configuration xml itself has changed, all
+     * groups are optimized. Modules are always compiled all at once.
      *
      * @param pathToXml    path to java-script configuration xml
      * @param jsOutputPath java-script output path
      * @param settings     maven {@link Settings}
+     * @param context      optimizer context
+     * @param changedFiles normalized absolute paths of changed files, <code>null</code> to optimize all groups
      */
-    public static void process( String pathToXml, String jsOutputPath, Settings settings )
+    public static void process( String pathToXml, String jsOutputPath, Settings settings, final OptimizerContext context,
+                                Set<String> changedFiles )
     {
-        String outputDirectory = FileHelper.getOutputDirectory( jsOutputPath );
+        final String outputDirectory = FileHelper.getOutputDirectory( jsOutputPath );
 
         if ( pathToXml == null || pathToXml.trim().isEmpty() )
         {
@@ -172,50 +125,344 @@ public class JsOptimizer
 
         try
         {
-            for ( JSConfig JSConfig : getJsConfigList( pathToXml ) )
-            {
-                String jsFile = JSConfig.getOutputJavascriptName();
-                final String fullJsFilePath = outputDirectory + jsFile;
+            long start = System.nanoTime();
+            List<JSConfig> jsConfigList = getJsConfigList( pathToXml );
+            context.getReport().parsed( "js", start );
 
-                new File( outputDirectory ).mkdirs();
-
-                List<String> args = new ArrayList<>();
+            if ( changedFiles != null && !changedFiles.contains( FileHelper.normalizePath( pathToXml ) ) )
+            {
+                jsConfigList = getAffectedGroups( jsConfigList, changedFiles );
+            }
 
-                for ( String js : JSConfig.getJsList() )
+            if ( !jsConfigList.isEmpty() && jsConfigList.get( 0 ).isBase() )
+            {
+                for ( String optimizedJs : processModules( jsConfigList, outputDirectory, context ) )
                 {
-                    args.add( ARG_JS );
-                    args.add( js );
+                    log.info( ">>> Javascript optimization finished successfully. Optimized js file can be found at: " + optimizedJs );
                 }
+                return;
+            }
+
+            List<Callable<String>> tasks = new ArrayList<>();
 
-                args.add( ARG_MANAGE_CLOSURE_DEPENDENCIES );
-                args.add( ARG_COMPILATION_LEVEL );
-                args.add( "ADVANCED_OPTIMIZATIONS" );
-                args.add( ARG_JS_OUTPUT_FILE );
-                args.add( fullJsFilePath );
+            for ( final JSConfig jsConfig : jsConfigList )
+            {
+                tasks.add( new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return processGroup( jsConfig, outputDirectory, context );
+                    }
+                } );
+            }
 
+            List<Future<String>> results = context.submitAll( tasks );
+            for ( int i = 0; i < results.size(); i++ )
+            {
                 try
                 {
-                    // make an ugly security manager override to be able prevent js closure exit
-                    System.setSecurityManager( new MySecurityManager() );
-                    CommandLineRunner.main( args.toArray( new String[args.size()] ) );
+                    String optimizedJs = results.get( i ).get();
+                    log.info( ">>> Javascript optimization finished successfully. Optimized js file can be found at: " + optimizedJs );
                 }
-                catch ( NoStopException e )
+                catch ( ExecutionException e )
                 {
-                    String jsOutputString = Files.toString( new File( fullJsFilePath ), Charsets.UTF_8 );
+                    log.log( Level.SEVERE, "Error occurred during processing js group '" + jsConfigList.get( i ).getOutputJavascriptName() + "': ", e.getCause() );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.log( Level.SEVERE, "Error occurred during processing js: ", e );
+        }
+    }
+
+    /**
+     * Return normalized absolute paths of configuration xml and all project java-script files of all groups.
+     * Bundled closure library files are not included.
+     *
+     * @param pathToXml path to java-script configuration xml
+     * @return input files of java-script optimization, empty if path to xml is not set
+     * @throws Exception if configuration xml could not be parsed
+     */
+    public static Set<String> getInputFiles( String pathToXml ) throws Exception
+    {
+        Set<String> inputs = new LinkedHashSet<>();
+        if ( pathToXml == null || pathToXml.trim().isEmpty() || !new File( pathToXml ).exists() )
+        {
+            return inputs;
+        }
 
-                    log.info( "JS minified output:\n===\n" + jsOutputString + "===\n" );
-                    log.info( ">>> Javascript optimization finished successfully. Optimized js file can be found at: " + fullJsFilePath );
+        inputs.add( FileHelper.normalizePath( pathToXml ) );
+        for ( JSConfig jsConfig : getJsConfigList( pathToXml ) )
+        {
+            for ( String js : jsConfig.getJsList() )
+            {
+                if ( !js.startsWith( closureRoot ) )
+                {
+                    inputs.add( FileHelper.normalizePath( js ) );
                 }
-                finally
+            }
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Return groups with at least one changed java-script file. Modules are compiled together, so all of them are
+     * returned if any module is affected.
+     *
+     * @param jsConfigList java-script group configurations
+     * @param changedFiles normalized absolute paths of changed files
+     * @return affected groups
+     */
+    private static List<JSConfig> getAffectedGroups( List<JSConfig> jsConfigList, Set<String> changedFiles )
+    {
+        List<JSConfig> affected = new ArrayList<>();
+        for ( JSConfig jsConfig : jsConfigList )
+        {
+            for ( String js : jsConfig.getJsList() )
+            {
+                if ( changedFiles.contains( FileHelper.normalizePath( js ) ) )
                 {
-                    System.setSecurityManager( null );
+                    affected.add( jsConfig );
+                    break;
                 }
             }
         }
-        catch ( Exception e )
+
+        if ( !affected.isEmpty() && jsConfigList.get( 0 ).isBase() )
         {
-            log.log( Level.SEVERE, "Error occurred during processing js: ", e );
+            return jsConfigList;
         }
+
+        return affected;
+    }
+
+    /**
+     * Optimize single java-script group
+     *
+     * @param jsConfig        java-script group configuration
+     * @param outputDirectory java-script output directory
+     * @param context         optimizer context
+     * @return full path of optimized java-script file
+     * @throws IOException if IOException occurs
+     */
+    private static String processGroup( JSConfig jsConfig, String outputDirectory, OptimizerContext context ) throws IOException
+    {
+        String jsFile = jsConfig.getOutputJavascriptName();
+        BuildCache cache = context.getCache();
+        OptimizerReport.Group report = context.getReport().newGroup( "js", jsFile );
+        CompilationLevel level = getMode( jsConfig, context ).getCompilationLevel();
+
+        long start = System.nanoTime();
+        BuildCache.Key cacheKey = cache.newKey( "js" )
+                .putString( jsFile )
+                .putString( level.name() );
+        long inputBytes = 0;
+        for ( String js : jsConfig.getJsList() )
+        {
+            File file = new File( js );
+            cacheKey.putFile( file );
+            inputBytes += file.length();
+        }
+        report.addInputBytes( inputBytes );
+        report.time( OptimizerReport.STAGE_READ, start );
+
+        String jsOutputString = cache.get( cacheKey );
+        if ( jsOutputString != null )
+        {
+            report.setCached( true );
+            log.info( "Javascript group '" + jsFile + "' is up to date, restored from cache: " + cacheKey );
+        }
+        else
+        {
+            start = System.nanoTime();
+            ClosureJsEngine.Output output;
+            CompilationLimiter.Permit permit = context.getLimiter().acquire( inputBytes );
+            try
+            {
+                start = report.time( OptimizerReport.STAGE_WAIT, start );
+                output = context.getJsEngine().compile( jsConfig.getJsList(), level );
+            }
+            finally
+            {
+                permit.close();
+            }
+            report.time( OptimizerReport.STAGE_COMPILE, start );
+
+            if ( !output.isSuccess() )
+            {
+                throw new IOException( "Closure compiler failed with errors:\n" + Joiner.on( '\n' ).join( output.getErrors() ) );
+            }
+
+            if ( !output.getWarnings().isEmpty() )
+            {
+                log.warning( "Javascript group '" + jsFile + "' compiled with warnings:\n" + Joiner.on( '\n' ).join( output.getWarnings() ) );
+            }
+
+            jsOutputString = output.getSource();
+            cache.put( cacheKey, jsOutputString );
+        }
+
+        return context.writeOutput( outputDirectory, jsFile, jsOutputString, report );
+    }
+
+    /**
+     * Optimize all groups in one compilation. Shared closure library and common java-script files are compiled
+     * into base module, every group is compiled into its own module depending on base module.
+     *
+     * @param jsConfigList    java-script configurations, the first one is base module
+     * @param outputDirectory java-script output directory
+     * @param context         optimizer context
+     * @return full paths of optimized java-script files, base module first
+     * @throws IOException if IOException occurs
+     */
+    private static List<String> processModules( List<JSConfig> jsConfigList, final String outputDirectory,
+                                                final OptimizerContext context ) throws IOException
+    {
+        BuildCache cache = context.getCache();
+
+        // modules are compiled together, compilation time is reported on base module
+        final Map<String, OptimizerReport.Group> reports = new LinkedHashMap<>();
+        OptimizerReport.Group baseReport = null;
+
+        CompilationLevel level = getMode( jsConfigList.get( 0 ), context ).getCompilationLevel();
+
+        BuildCache.Key modulesKey = cache.newKey( "js" ).putString( level.name() );
+        Map<String, List<String>> modules = new LinkedHashMap<>();
+        long inputBytes = 0;
+        for ( JSConfig jsConfig : jsConfigList )
+        {
+            OptimizerReport.Group report = context.getReport().newGroup( "js", jsConfig.getOutputJavascriptName() );
+            reports.put( jsConfig.getOutputJavascriptName(), report );
+            if ( baseReport == null )
+            {
+                baseReport = report;
+            }
+
+            modules.put( jsConfig.getOutputJavascriptName(), jsConfig.getJsList() );
+
+            long start = System.nanoTime();
+            modulesKey.putString( jsConfig.getOutputJavascriptName() );
+            for ( String js : jsConfig.getJsList() )
+            {
+                File file = new File( js );
+                modulesKey.putFile( file );
+                report.addInputBytes( file.length() );
+                inputBytes += file.length();
+            }
+            report.time( OptimizerReport.STAGE_READ, start );
+        }
+
+        // every module is cached under its own key derived from key of the whole module graph
+        Map<String, BuildCache.Key> moduleKeys = new LinkedHashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for ( String module : modules.keySet() )
+        {
+            BuildCache.Key moduleKey = cache.newKey( "js" ).putString( modulesKey.getValue() ).putString( module );
+            moduleKeys.put( module, moduleKey );
+
+            String cached = cache.get( moduleKey );
+            if ( cached != null )
+            {
+                sources.put( module, cached );
+            }
+        }
+
+        if ( sources.size() == modules.size() )
+        {
+            for ( OptimizerReport.Group report : reports.values() )
+            {
+                report.setCached( true );
+            }
+            log.info( "Javascript modules are up to date, restored from cache: " + modulesKey );
+        }
+        else
+        {
+            long start = System.nanoTime();
+            ClosureJsEngine.Output output;
+            CompilationLimiter.Permit permit = context.getLimiter().acquire( inputBytes );
+            try
+            {
+                if ( baseReport != null )
+                {
+                    start = baseReport.time( OptimizerReport.STAGE_WAIT, start );
+                }
+                output = context.getJsEngine().compileModules( modules, level );
+            }
+            finally
+            {
+                permit.close();
+            }
+            if ( baseReport != null )
+            {
+                baseReport.time( OptimizerReport.STAGE_COMPILE, start );
+            }
+
+            if ( !output.isSuccess() )
+            {
+                throw new IOException( "Closure compiler failed with errors:\n" + Joiner.on( '\n' ).join( output.getErrors() ) );
+            }
+
+            if ( !output.getWarnings().isEmpty() )
+            {
+                log.warning( "Javascript modules compiled with warnings:\n" + Joiner.on( '\n' ).join( output.getWarnings() ) );
+            }
+
+            for ( String module : modules.keySet() )
+            {
+                String source = output.getSource( module );
+                sources.put( module, source );
+                cache.put( moduleKeys.get( module ), source );
+            }
+        }
+
+        // modules are written and compressed concurrently
+        List<Callable<String>> tasks = new ArrayList<>();
+        for ( final Map.Entry<String, String> source : sources.entrySet() )
+        {
+            tasks.add( new Callable<String>()
+            {
+                @Override
+                public String call() throws Exception
+                {
+                    return context.writeOutput( outputDirectory, source.getKey(), source.getValue(), reports.get( source.getKey() ) );
+                }
+            } );
+        }
+
+        List<String> optimizedJsList = new ArrayList<>();
+        for ( Future<String> result : context.submitAll( tasks ) )
+        {
+            try
+            {
+                optimizedJsList.add( result.get() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Writing of javascript modules has been interrupted", e );
+            }
+            catch ( ExecutionException e )
+            {
+                throw new IOException( "Javascript module could not be written", e.getCause() );
+            }
+        }
+
+        return optimizedJsList;
+    }
+
+    /**
+     * Return optimization mode of group
+     *
+     * @param jsConfig java-script group configuration
+     * @param context  optimizer context
+     * @return mode of group if set, otherwise mode of the build
+     */
+    private static OptimizationMode getMode( JSConfig jsConfig, OptimizerContext context )
+    {
+        return jsConfig.getMode() != null ? jsConfig.getMode() : context.getMode();
     }
 
     /**
@@ -234,6 +481,15 @@ public class JsOptimizer
         Document document = db.parse( pathToXml );
 
         Element groups = ( Element ) document.getElementsByTagName( "groups" ).item( 0 );
+        Element common = ( Element ) groups.getElementsByTagName( "common" ).item( 0 );
+
+        ClosureDependencyIndex dependencyIndex = ClosureDependencyIndex.getInstance( closureRoot );
+        List<String> commonJsList = common != null ? parseJs( common ) : new ArrayList<String>();
+
+        // named common element turns on module compilation - shared java-script goes into its own base module
+        boolean modules = common != null && !common.getAttribute( "name" ).isEmpty();
+        List<String> allJsList = new ArrayList<>( commonJsList );
+
         NodeList groupList = groups.getElementsByTagName( "group" );
         for ( int i = 0; i < groupList.getLength(); i++ )
         {
@@ -241,64 +497,78 @@ public class JsOptimizer
 
             Element group = ( Element ) groupList.item( i );
             jsConfig.setOutputJavascriptName( group.getAttribute( "name" ) );
+            jsConfig.setMode( OptimizationMode.parse( group.getAttribute( "mode" ), null ) );
 
-            // add closure js
-            for ( String closureJs : closureLibraryList )
+            // add custom javascripts
+            List<String> groupJsList = parseJs( group );
+
+            if ( modules && groupJsList.isEmpty() )
             {
-                jsConfig.addJs( closureJs );
+                // module contains only its own files, it would be compiled to empty output
+                log.warning( "Javascript module has no existing file - therefore will be skipped for optimization: " + jsConfig.getOutputJavascriptName() );
+                continue;
             }
 
-            // add common javascripts
-            parseCommonJs( groups, jsConfig );
-
-            // add custom javascripts
-            NodeList jsList = group.getElementsByTagName( "js" );
-            for ( int j = 0; j < jsList.getLength(); j++ )
+            if ( !modules )
             {
-                Element js = ( Element ) jsList.item( j );
-
-                File file = new File( js.getTextContent() );
-                if ( file.exists() )
-                {
-                    jsConfig.addJs( file.getAbsolutePath() );
+                List<String> sources = new ArrayList<>( commonJsList );
+                sources.addAll( groupJsList );
 
-                }
-                else
-                {
-                    log.warning( "Javascript file does not exists - therefore will be skipped for optimization: " + js.getTextContent() );
-                }
+                // add closure js required by group and common javascripts
+                jsConfig.addAllJs( dependencyIndex.getDependencies( sources ) );
+                jsConfig.addAllJs( commonJsList );
             }
 
+            jsConfig.addAllJs( groupJsList );
+            allJsList.addAll( groupJsList );
+
             list.add( jsConfig );
         }
 
+        if ( modules )
+        {
+            JSConfig baseConfig = new JSConfig();
+            baseConfig.setOutputJavascriptName( common.getAttribute( "name" ) );
+            baseConfig.setBase( true );
+            baseConfig.setMode( OptimizationMode.parse( common.getAttribute( "mode" ), null ) );
+
+            // add closure js required by any group and common javascripts
+            baseConfig.addAllJs( dependencyIndex.getDependencies( allJsList ) );
+            baseConfig.addAllJs( commonJsList );
+
+            list.add( 0, baseConfig );
+        }
+
         return list;
     }
 
     /**
-     * Parse common java-script files
+     * Parse java-script files of group or common element
      *
-     * @param groups   groups
-     * @param jsConfig js config
+     * @param element group or common element
+     * @return absolute paths of existing java-script files
      */
-    private static void parseCommonJs( Element groups, JSConfig jsConfig )
+    private static List<String> parseJs( Element element )
     {
-        Element common = ( Element ) groups.getElementsByTagName( "common" ).item( 0 );
-        NodeList commonJsList = common.getElementsByTagName( "js" );
-        for ( int k = 0; k < commonJsList.getLength(); k++ )
+        List<String> list = new ArrayList<>();
+
+        NodeList jsList = element.getElementsByTagName( "js" );
+        for ( int j = 0; j < jsList.getLength(); j++ )
         {
-            Element commonJs = ( Element ) commonJsList.item( k );
+            Element js = ( Element ) jsList.item( j );
 
-            File file = new File( commonJs.getTextContent() );
+            File file = new File( js.getTextContent() );
             if ( file.exists() )
             {
-                jsConfig.addJs( file.getAbsolutePath() );
+                list.add( file.getAbsolutePath() );
             }
             else
             {
-                log.warning( "Javascript file does not exists - therefore will be skipped for optimization: " + commonJs.getTextContent() );
+                log.warning( "Javascript file does not exists - therefore will be skipped for optimization: " + js.getTextContent() );
             }
         }
+
+        return list;
     }
 
     /**
@@ -310,6 +580,16 @@ public class JsOptimizer
 
         private List<String> jsList = new ArrayList<>();
 
+        /**
+         * Flag for base module with shared java-script of all groups
+         */
+        private boolean base;
+
+        /**
+         * Optimization mode of group, <code>null</code> if mode of the build applies
+         */
+        private OptimizationMode mode;
+
         public void setOutputJavascriptName( String outputJavascriptName )
         {
             this.outputJavascriptName = outputJavascriptName;
@@ -325,44 +605,29 @@ public class JsOptimizer
             return jsList;
         }
 
-        public void addJs( String js )
+        public void addAllJs( List<String> js )
         {
-            jsList.add( js );
+            jsList.addAll( js );
         }
-    }
 
-    /**
-     * Add closure library java-script file
-     *
-     * @param jsLib relative path to closure java-script file
-     */
-    private static void addClosureLib( String jsLib )
-    {
-        closureLibraryList.add( closureRoot + File.separator + jsLib );
-    }
-
-    private static class MySecurityManager
-            extends SecurityManager
-    {
+        public boolean isBase()
+        {
+            return base;
+        }
 
-        @Override
-        public void checkPermission( Permission perm )
+        public void setBase( boolean base )
         {
-            // do nothing
+            this.base = base;
         }
 
-        @Override
-        public void checkExit( int status )
+        public OptimizationMode getMode()
         {
-            if ( status == 0 )
-            {
-                throw new NoStopException();
-            }
+            return mode;
         }
-    }
 
-    private static class NoStopException
-            extends RuntimeException
-    {
+        public void setMode( OptimizationMode mode )
+        {
+            this.mode = mode;
+        }
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+import java.util.Locale;
+
+/**
+ * <p>Optimization mode of css and java-script groups.</p>
+ * <ul>
+ * <li><code>fast</code> - java-script is concatenated and compiled with whitespace only compilation, css is just
+ * concatenated. Meant for development builds.</li>
+ * <li><code>simple</code> - java-script is compiled with simple optimizations, css is compacted without
+ * simplification passes</li>
+ * <li><code>advanced</code> - java-script is compiled with advanced optimizations, css is fully compacted</li>
+ * </ul>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public enum OptimizationMode
+{
+    FAST( CompilationLevel.WHITESPACE_ONLY ),
+    SIMPLE( CompilationLevel.SIMPLE_OPTIMIZATIONS ),
+    ADVANCED( CompilationLevel.ADVANCED_OPTIMIZATIONS );
+
+    private final CompilationLevel compilationLevel;
+
+    OptimizationMode( CompilationLevel compilationLevel )
+    {
+        this.compilationLevel = compilationLevel;
+    }
+
+    /**
+     * Return closure compiler compilation level of java-script
+     *
+     * @return compilation level
+     */
+    public CompilationLevel getCompilationLevel()
+    {
+        return compilationLevel;
+    }
+
+    /**
+     * Parse optimization mode, case is ignored
+     *
+     * @param value       mode name - <code>fast</code>, <code>simple</code> or <code>advanced</code>
+     * @param defaultMode mode returned if value is empty
+     * @return optimization mode
+     * @throws IllegalArgumentException if value is not a mode name
+     */
+    public static OptimizationMode parse( String value, OptimizationMode defaultMode )
+    {
+        if ( value == null || value.trim().isEmpty() )
+        {
+            return defaultMode;
+        }
+
+        try
+        {
+            return valueOf( value.trim().toUpperCase( Locale.ROOT ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new IllegalArgumentException( "Unknown optimization mode '" + value + "', use fast, simple or advanced" );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase( Locale.ROOT );
+    }
+}
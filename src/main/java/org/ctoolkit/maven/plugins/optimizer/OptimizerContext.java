@@ -0,0 +1,385 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import org.ctoolkit.maven.plugins.util.FileHelper;
+import org.ctoolkit.maven.plugins.util.GzipCompressor;
+import org.ctoolkit.maven.plugins.util.OutputWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Build-wide state shared by css and java-script optimization - build cache, css and java-script engines and
+ * bounded worker pool used to process groups concurrently.
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class OptimizerContext
+{
+    private static Logger log = Logger.getLogger( OptimizerContext.class.getName() );
+
+    private final BuildCache cache;
+
+    private final ExecutorService executor;
+
+    /**
+     * Fork/join pool of image encoding and compression tasks, group tasks wait for their image tasks, so image
+     * tasks can not run on worker pool
+     */
+    private final ForkJoinPool imagePool;
+
+    private ClosureCssEngine cssEngine = new ClosureCssEngine();
+
+    private ClosureJsEngine jsEngine;
+
+    private final ImagePathResolver imageResolver = new ImagePathResolver();
+
+    private GzipCompressor compressor;
+
+    private Fingerprinter fingerprinter;
+
+    private OptimizerReport report = new OptimizerReport();
+
+    private ImageInliner imageInliner = new ImageInliner( 0, new DataUriCache( 0 ) );
+
+    private CompilationLimiter limiter = new CompilationLimiter( 0 );
+
+    private OptimizationMode mode = OptimizationMode.ADVANCED;
+
+    /**
+     * Maximum width and height of image packed into sprite sheet in pixels
+     */
+    private int spriteImageMaxSize = 128;
+
+    /**
+     * Create optimizer context
+     *
+     * @param cache   build cache of optimized groups
+     * @param threads number of worker threads, if less than 1 number of available processors is used
+     */
+    public OptimizerContext( BuildCache cache, int threads )
+    {
+        this.cache = cache;
+        this.jsEngine = new ClosureJsEngine( cache.getSession() );
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool( poolSize, new WorkerThreadFactory() );
+        this.imagePool = new ForkJoinPool( poolSize );
+    }
+
+    public BuildCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Return report of current optimization pass
+     *
+     * @return optimization report
+     */
+    public OptimizerReport getReport()
+    {
+        return report;
+    }
+
+    public void setReport( OptimizerReport report )
+    {
+        this.report = report;
+    }
+
+    /**
+     * Return cache shared by all plugin executions of maven session
+     *
+     * @return session cache
+     */
+    public SessionCache getSession()
+    {
+        return cache.getSession();
+    }
+
+    /**
+     * Return optimization mode of groups which do not set their own mode
+     *
+     * @return optimization mode
+     */
+    public OptimizationMode getMode()
+    {
+        return mode;
+    }
+
+    public void setMode( OptimizationMode mode )
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Return maximum width and height of image packed into sprite sheet, larger background images of sprite groups
+     * are left as external references
+     *
+     * @return maximum size of sprite image in pixels
+     */
+    public int getSpriteImageMaxSize()
+    {
+        return spriteImageMaxSize;
+    }
+
+    public void setSpriteImageMaxSize( int spriteImageMaxSize )
+    {
+        this.spriteImageMaxSize = spriteImageMaxSize;
+    }
+
+    /**
+     * Return limiter of closure compilations
+     *
+     * @return compilation limiter
+     */
+    public CompilationLimiter getLimiter()
+    {
+        return limiter;
+    }
+
+    public void setLimiter( CompilationLimiter limiter )
+    {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Return css engine shared by all css groups of the build
+     *
+     * @return css engine
+     */
+    public ClosureCssEngine getCssEngine()
+    {
+        return cssEngine;
+    }
+
+    /**
+     * Set css engine, e.g. engine compiling in {@link CompileDaemon}
+     *
+     * @param cssEngine css engine
+     */
+    public void setCssEngine( ClosureCssEngine cssEngine )
+    {
+        this.cssEngine = cssEngine;
+    }
+
+    /**
+     * Return image path resolver shared by all css groups of the build
+     *
+     * @return image path resolver
+     */
+    public ImagePathResolver getImageResolver()
+    {
+        return imageResolver;
+    }
+
+    /**
+     * Return image inliner used to encode images of css groups
+     *
+     * @return image inliner
+     */
+    public ImageInliner getImageInliner()
+    {
+        return imageInliner;
+    }
+
+    public void setImageInliner( ImageInliner imageInliner )
+    {
+        this.imageInliner = imageInliner;
+    }
+
+    /**
+     * Set compressor of output files, if not set, no compressed files are written
+     *
+     * @param compressor compressor of output files
+     */
+    public void setCompressor( GzipCompressor compressor )
+    {
+        this.compressor = compressor;
+    }
+
+    /**
+     * Set fingerprinter of output file names, if not set, outputs are written under their logical names
+     *
+     * @param fingerprinter fingerprinter of output file names
+     */
+    public void setFingerprinter( Fingerprinter fingerprinter )
+    {
+        this.fingerprinter = fingerprinter;
+    }
+
+    /**
+     * Return fingerprinter of output file names
+     *
+     * @return fingerprinter or <code>null</code> if outputs are written under their logical names
+     */
+    public Fingerprinter getFingerprinter()
+    {
+        return fingerprinter;
+    }
+
+    /**
+     * Write optimized output file and its compressed sibling if compression is turned on. If fingerprinting is
+     * turned on, file name contains hash of content and it is recorded in asset manifest.
+     *
+     * @param path     output path
+     * @param fileName output file name
+     * @param content  optimized content
+     * @param report   report of group
+     * @return full path of output file
+     * @throws IOException if compressed file could not be written
+     */
+    public String writeOutput( String path, String fileName, String content, OptimizerReport.Group report )
+            throws IOException
+    {
+        long start = System.nanoTime();
+        String outputName = fingerprinter != null ? fingerprinter.getFileName( fileName, content ) : fileName;
+        String file = FileHelper.createOutputFile( path, outputName, content );
+
+        if ( fingerprinter != null )
+        {
+            fingerprinter.written( new File( path ), fileName, outputName );
+        }
+
+        if ( compressor != null )
+        {
+            String compressed = compressor.compress( file, content );
+            if ( compressed != null )
+            {
+                log.info( "Compressed file written: " + compressed );
+            }
+            report.addGzipBytes( new File( file + ".gz" ).length() );
+        }
+
+        report.addOutputBytes( OutputWriter.utf8Length( content ) );
+        report.time( OptimizerReport.STAGE_WRITE, start );
+
+        return file;
+    }
+
+    /**
+     * Return java-script engine shared by all java-script groups of the build
+     *
+     * @return java-script engine
+     */
+    public ClosureJsEngine getJsEngine()
+    {
+        return jsEngine;
+    }
+
+    /**
+     * Set java-script engine, e.g. engine compiling in {@link CompileDaemon}
+     *
+     * @param jsEngine java-script engine
+     */
+    public void setJsEngine( ClosureJsEngine jsEngine )
+    {
+        this.jsEngine = jsEngine;
+    }
+
+    /**
+     * Submit group tasks to worker pool. Returned futures are in the same order as tasks, so results and errors
+     * can be reported in deterministic order regardless of the order in which groups finished.
+     *
+     * @param tasks group tasks
+     * @param <T>   type of task result
+     * @return list of futures in order of tasks
+     */
+    public <T> List<Future<T>> submitAll( List<? extends Callable<T>> tasks )
+    {
+        List<Future<T>> futures = new ArrayList<>();
+        for ( Callable<T> task : tasks )
+        {
+            futures.add( executor.submit( task ) );
+        }
+
+        return futures;
+    }
+
+    /**
+     * Write asset manifests of fingerprinted outputs, if fingerprinting is turned on
+     *
+     * @throws IOException if manifest could not be written
+     */
+    public void writeManifests() throws IOException
+    {
+        if ( fingerprinter != null )
+        {
+            fingerprinter.writeManifests();
+        }
+    }
+
+    /**
+     * Forget state which describes file system at the time it has been read (directory listings). Engines, loaded
+     * sources and caches keyed by file modification stay in place. Used when context is reused for another
+     * optimization pass in the same JVM.
+     */
+    public void refresh()
+    {
+        imageResolver.clear();
+    }
+
+    /**
+     * Return fork/join pool of image tasks
+     *
+     * @return image pool
+     */
+    public ForkJoinPool getImagePool()
+    {
+        return imagePool;
+    }
+
+    /**
+     * Shutdown worker and image pools
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        imagePool.shutdownNow();
+    }
+
+    /**
+     * Creates daemon worker threads, so unfinished compilation never blocks JVM exit
+     */
+    private static class WorkerThreadFactory
+            implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "optimizer-worker-" + counter.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
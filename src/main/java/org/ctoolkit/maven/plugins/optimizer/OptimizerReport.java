@@ -0,0 +1,312 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * <p>Timing and size report of one optimization pass.</p>
+ * <p>Every group records wall time of its stages (input read, image inlining, waiting for compilation slot,
+ * compilation, write), input, output and compressed bytes and number of inlined images. Report is written as json
+ * file and compact summary table is logged at the end of the pass.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class OptimizerReport
+{
+    private static Logger log = Logger.getLogger( OptimizerReport.class.getName() );
+
+    public static final String STAGE_READ = "read";
+
+    public static final String STAGE_INLINE = "inline";
+
+    public static final String STAGE_WAIT = "wait";
+
+    public static final String STAGE_COMPILE = "compile";
+
+    public static final String STAGE_WRITE = "write";
+
+    private static final String[] STAGES = {STAGE_READ, STAGE_INLINE, STAGE_WAIT, STAGE_COMPILE, STAGE_WRITE};
+
+    /**
+     * Configuration parse time in nanoseconds keyed by kind (css, js)
+     */
+    private final Map<String, Long> parseTimes = new LinkedHashMap<>();
+
+    private final List<Group> groups = new ArrayList<>();
+
+    /**
+     * Record parse time of configuration xml
+     *
+     * @param kind  kind of configuration (css, js)
+     * @param start start of parsing as returned by {@link System#nanoTime()}
+     */
+    public synchronized void parsed( String kind, long start )
+    {
+        parseTimes.put( kind, System.nanoTime() - start );
+    }
+
+    /**
+     * Create report of group
+     *
+     * @param kind kind of group (css, js)
+     * @param name output name of group
+     * @return group report
+     */
+    public synchronized Group newGroup( String kind, String name )
+    {
+        Group group = new Group( kind, name );
+        groups.add( group );
+        return group;
+    }
+
+    /**
+     * Write report as json
+     *
+     * @param file report file
+     * @throws IOException if report could not be written
+     */
+    public void write( File file ) throws IOException
+    {
+        StringBuilder sb = new StringBuilder( "{\n  \"parse\": {" );
+
+        synchronized ( this )
+        {
+            String separator = "";
+            for ( Map.Entry<String, Long> parseTime : parseTimes.entrySet() )
+            {
+                sb.append( separator ).append( "\"" ).append( parseTime.getKey() ).append( "\": " ).append( millis( parseTime.getValue() ) );
+                separator = ", ";
+            }
+            sb.append( "},\n  \"groups\": [" );
+
+            separator = "\n";
+            for ( Group group : getSortedGroups() )
+            {
+                sb.append( separator );
+                group.toJson( sb );
+                separator = ",\n";
+            }
+        }
+        sb.append( "\n  ]\n}\n" );
+
+        File directory = file.getParentFile();
+        if ( directory != null )
+        {
+            directory.mkdirs();
+        }
+        Files.write( sb.toString(), file, Charsets.UTF_8 );
+    }
+
+    /**
+     * Log compact summary table of groups
+     */
+    public synchronized void logSummary()
+    {
+        if ( groups.isEmpty() )
+        {
+            return;
+        }
+
+        String format = "%-4s %-32s %10s %10s %10s %6s %9s %10s %10s %10s %10s %10s%n";
+        StringBuilder sb = new StringBuilder( "Optimization report:\n" );
+        sb.append( String.format( Locale.ROOT, format, "kind", "group", "input", "output", "gzip", "images", "img saved", "read ms", "inline ms", "wait ms", "compile ms", "write ms" ) );
+
+        for ( Group group : getSortedGroups() )
+        {
+            sb.append( String.format( Locale.ROOT, format,
+                    group.kind,
+                    group.name,
+                    group.inputBytes,
+                    group.outputBytes,
+                    group.gzipBytes > 0 ? String.valueOf( group.gzipBytes ) : "-",
+                    group.inlinedImages,
+                    group.savedImageBytes,
+                    millis( group.getTime( STAGE_READ ) ),
+                    millis( group.getTime( STAGE_INLINE ) ),
+                    millis( group.getTime( STAGE_WAIT ) ),
+                    group.cached ? "cached" : millis( group.getTime( STAGE_COMPILE ) ),
+                    millis( group.getTime( STAGE_WRITE ) ) ) );
+        }
+
+        log.info( sb.toString() );
+    }
+
+    private List<Group> getSortedGroups()
+    {
+        List<Group> sorted = new ArrayList<>( groups );
+        Collections.sort( sorted, new Comparator<Group>()
+        {
+            @Override
+            public int compare( Group g1, Group g2 )
+            {
+                int kind = g1.kind.compareTo( g2.kind );
+                return kind != 0 ? kind : g1.name.compareTo( g2.name );
+            }
+        } );
+
+        return sorted;
+    }
+
+    private static String millis( long nanos )
+    {
+        return String.format( Locale.ROOT, "%.1f", nanos / 1000000d );
+    }
+
+    /**
+     * Report of single group. Stages of group may run concurrently (e.g. writing of modules), so all methods are
+     * synchronized.
+     */
+    public static class Group
+    {
+        private final String kind;
+
+        private final String name;
+
+        private final Map<String, Long> times = new LinkedHashMap<>();
+
+        private boolean cached;
+
+        private long inputBytes;
+
+        private long outputBytes;
+
+        private long gzipBytes;
+
+        private int inlinedImages;
+
+        private long savedImageBytes;
+
+        private Group( String kind, String name )
+        {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /**
+         * Add time of stage
+         *
+         * @param stage stage name
+         * @param start start of stage as returned by {@link System#nanoTime()}
+         * @return end of stage, which can be used as start of next stage
+         */
+        public synchronized long time( String stage, long start )
+        {
+            long end = System.nanoTime();
+            times.put( stage, getTime( stage ) + end - start );
+            return end;
+        }
+
+        public synchronized void setCached( boolean cached )
+        {
+            this.cached = cached;
+        }
+
+        public synchronized void addInputBytes( long bytes )
+        {
+            inputBytes += bytes;
+        }
+
+        public synchronized void addOutputBytes( long bytes )
+        {
+            outputBytes += bytes;
+        }
+
+        public synchronized void addGzipBytes( long bytes )
+        {
+            gzipBytes += bytes;
+        }
+
+        public synchronized void addInlinedImage()
+        {
+            inlinedImages++;
+        }
+
+        public synchronized void addSavedImageBytes( long bytes )
+        {
+            savedImageBytes += bytes;
+        }
+
+        private synchronized long getTime( String stage )
+        {
+            Long time = times.get( stage );
+            return time != null ? time : 0;
+        }
+
+        private synchronized void toJson( StringBuilder sb )
+        {
+            sb.append( "    {\"kind\": \"" ).append( kind )
+                    .append( "\", \"name\": \"" ).append( escape( name ) )
+                    .append( "\", \"cached\": " ).append( cached )
+                    .append( ", \"inputBytes\": " ).append( inputBytes )
+                    .append( ", \"outputBytes\": " ).append( outputBytes )
+                    .append( ", \"gzipBytes\": " ).append( gzipBytes )
+                    .append( ", \"inlinedImages\": " ).append( inlinedImages )
+                    .append( ", \"savedImageBytes\": " ).append( savedImageBytes )
+                    .append( ", \"millis\": {" );
+
+            String separator = "";
+            for ( String stage : STAGES )
+            {
+                if ( times.containsKey( stage ) )
+                {
+                    sb.append( separator ).append( "\"" ).append( stage ).append( "\": " ).append( millis( times.get( stage ) ) );
+                    separator = ", ";
+                }
+            }
+            sb.append( "}}" );
+        }
+
+        private static String escape( String value )
+        {
+            StringBuilder sb = new StringBuilder( value.length() );
+            for ( int i = 0; i < value.length(); i++ )
+            {
+                char c = value.charAt( i );
+                if ( c == '"' || c == '\\' )
+                {
+                    sb.append( '\\' ).append( c );
+                }
+                else if ( c < 0x20 )
+                {
+                    sb.append( String.format( "\\u%04x", ( int ) c ) );
+                }
+                else
+                {
+                    sb.append( c );
+                }
+            }
+
+            return sb.toString();
+        }
+    }
+}
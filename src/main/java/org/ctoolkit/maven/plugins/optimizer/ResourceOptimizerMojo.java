@@ -24,6 +24,16 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Settings;
+import org.ctoolkit.maven.plugins.util.GzipCompressor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Web resource optimizer mojo
@@ -35,6 +45,11 @@ import org.apache.maven.settings.Settings;
 public class ResourceOptimizerMojo
         extends AbstractMojo
 {
+    /**
+     * Property switching optimization mode, e.g. in development profile
+     */
+    private static final String MODE_PROPERTY = "optimizer.mode";
+
     /**
      * @parameter expression="${settings}"
      * @required
@@ -69,6 +84,91 @@ public class ResourceOptimizerMojo
      */
     private String jsOutputPath;
 
+    /**
+     * @parameter cacheDirectory
+     */
+    private String cacheDirectory;
+
+    /**
+     * @parameter threads
+     */
+    private int threads;
+
+    /**
+     * @parameter inlineImageMaxSize
+     */
+    private long inlineImageMaxSize;
+
+    /**
+     * @parameter inlineFontMaxSize
+     */
+    private long inlineFontMaxSize;
+
+    /**
+     * @parameter spriteImageMaxSize
+     */
+    private int spriteImageMaxSize = 128;
+
+    /**
+     * @parameter dataUriCacheSize
+     */
+    private long dataUriCacheSize = 32 * 1024 * 1024;
+
+    /**
+     * @parameter sessionCacheSize
+     */
+    private long sessionCacheSize = SessionCache.DEFAULT_OUTPUTS_CAPACITY;
+
+    /**
+     * @parameter optimizeImages
+     */
+    private boolean optimizeImages;
+
+    /**
+     * @parameter gzip
+     */
+    private boolean gzip;
+
+    /**
+     * @parameter gzipExhaustive
+     */
+    private boolean gzipExhaustive;
+
+    /**
+     * @parameter fingerprint
+     */
+    private boolean fingerprint;
+
+    /**
+     * @parameter manifestName
+     */
+    private String manifestName = "asset-manifest.properties";
+
+    /**
+     * @parameter fingerprintRetention
+     */
+    private int fingerprintRetention = 3;
+
+    /**
+     * @parameter maxCompilations
+     */
+    private int maxCompilations;
+
+    /**
+     * @parameter mode
+     */
+    private String mode;
+
+    /**
+     * @parameter daemon
+     */
+    private boolean daemon;
+
+    /**
+     * @parameter daemonIdleTimeout
+     */
+    private int daemonIdleTimeout = 1800;
+
     /**
      * Set path to css configuration xml
      *
@@ -109,6 +209,188 @@ public class ResourceOptimizerMojo
         this.jsOutputPath = jsOutputPath;
     }
 
+    /**
+     * Set directory of persistent build cache. If not set, the cache is disabled.
+     *
+     * @param cacheDirectory path to build cache directory
+     */
+    public void setCacheDirectory( String cacheDirectory )
+    {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Set number of worker threads used to optimize groups. If not set, number of available processors is used.
+     *
+     * @param threads number of worker threads
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Set maximum size of image inlined into css in bytes. Larger images are left as external references.
+     * If not set, all images are inlined.
+     *
+     * @param inlineImageMaxSize maximum size of inlined image in bytes
+     */
+    public void setInlineImageMaxSize( long inlineImageMaxSize )
+    {
+        this.inlineImageMaxSize = inlineImageMaxSize;
+    }
+
+    /**
+     * Set maximum size of font (woff, woff2, ttf, otf, eot) inlined into css in bytes. Larger fonts are left as
+     * external references. If not set, fonts are not inlined.
+     *
+     * @param inlineFontMaxSize maximum size of inlined font in bytes
+     */
+    public void setInlineFontMaxSize( long inlineFontMaxSize )
+    {
+        this.inlineFontMaxSize = inlineFontMaxSize;
+    }
+
+    /**
+     * Set maximum width and height of background image packed into sprite sheet in pixels. Larger background images
+     * of sprite groups are left as external references. Defaults to 128.
+     *
+     * @param spriteImageMaxSize maximum size of sprite image in pixels
+     */
+    public void setSpriteImageMaxSize( int spriteImageMaxSize )
+    {
+        this.spriteImageMaxSize = spriteImageMaxSize;
+    }
+
+    /**
+     * Set maximum total size of image data URIs cached during build in characters. Least recently used data URIs
+     * are evicted first. Defaults to 32M, cache is disabled if less than 1.
+     *
+     * @param dataUriCacheSize maximum total size of cached data URIs
+     */
+    public void setDataUriCacheSize( long dataUriCacheSize )
+    {
+        this.dataUriCacheSize = dataUriCacheSize;
+    }
+
+    /**
+     * Set maximum total size of optimized outputs kept in memory for other modules of the same maven session in
+     * characters. Least recently used outputs are evicted first. Defaults to 4M, outputs are not kept if less than 1.
+     *
+     * @param sessionCacheSize maximum total size of outputs kept in memory
+     */
+    public void setSessionCacheSize( long sessionCacheSize )
+    {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    /**
+     * Set whether PNG and JPEG images are optimized losslessly before they are inlined or packed into sprite sheet
+     *
+     * @param optimizeImages <code>true</code> to optimize images
+     */
+    public void setOptimizeImages( boolean optimizeImages )
+    {
+        this.optimizeImages = optimizeImages;
+    }
+
+    /**
+     * Set whether pre-compressed <code>.gz</code> file is written next to every optimized output file
+     *
+     * @param gzip <code>true</code> to write compressed files
+     */
+    public void setGzip( boolean gzip )
+    {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Set whether every compression level with default and filtered deflate strategy is tried and the smallest
+     * compressed output is kept. Slower, used only if gzip is turned on.
+     *
+     * @param gzipExhaustive <code>true</code> to try all compression levels and deflate strategies
+     */
+    public void setGzipExhaustive( boolean gzipExhaustive )
+    {
+        this.gzipExhaustive = gzipExhaustive;
+    }
+
+    /**
+     * Set whether output file names contain hash of their content, e.g. <code>style.min.&lt;hash&gt;.css</code>
+     *
+     * @param fingerprint <code>true</code> to fingerprint output file names
+     */
+    public void setFingerprint( boolean fingerprint )
+    {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Set name of manifest properties file mapping logical output names to fingerprinted names. Manifest is
+     * written to every output directory. Defaults to <code>asset-manifest.properties</code>.
+     *
+     * @param manifestName name of manifest file
+     */
+    public void setManifestName( String manifestName )
+    {
+        this.manifestName = manifestName;
+    }
+
+    /**
+     * Set number of fingerprinted versions of every output kept in output directory, older versions are deleted.
+     * Defaults to 3.
+     *
+     * @param fingerprintRetention number of kept versions
+     */
+    public void setFingerprintRetention( int fingerprintRetention )
+    {
+        this.fingerprintRetention = fingerprintRetention;
+    }
+
+    /**
+     * Set maximum number of closure compilations running at the same time in the JVM, shared by all modules of
+     * parallel build. If not set, number of available processors is used.
+     *
+     * @param maxCompilations maximum number of concurrent compilations
+     */
+    public void setMaxCompilations( int maxCompilations )
+    {
+        this.maxCompilations = maxCompilations;
+    }
+
+    /**
+     * Set optimization mode of groups which do not set their own mode - <code>fast</code>, <code>simple</code> or
+     * <code>advanced</code>. If not set, value of <code>optimizer.mode</code> property is used, defaults to
+     * <code>advanced</code>.
+     *
+     * @param mode optimization mode
+     */
+    public void setMode( String mode )
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Set whether closure compilations run in local compile daemon, which stays running between maven invocations
+     * with warm JIT and loaded compiler classes
+     *
+     * @param daemon <code>true</code> to compile in daemon
+     */
+    public void setDaemon( boolean daemon )
+    {
+        this.daemon = daemon;
+    }
+
+    /**
+     * Set idle time in seconds after which compile daemon exits
+     *
+     * @param daemonIdleTimeout idle time in seconds
+     */
+    public void setDaemonIdleTimeout( int daemonIdleTimeout )
+    {
+        this.daemonIdleTimeout = daemonIdleTimeout;
+    }
+
     /**
      * Set maven settings object
      *
@@ -130,7 +412,8 @@ public class ResourceOptimizerMojo
     }
 
     /**
-     * Execute optimize mojo
+     * Execute optimize mojo. Css and java-script optimization run at the same time and share one bounded
+     * worker pool for their groups.
      *
      * @throws MojoExecutionException if {@link MojoExecutionException} occurs
      * @throws MojoFailureException   if {@link MojoFailureException} occurs
@@ -138,7 +421,160 @@ public class ResourceOptimizerMojo
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException
     {
-        CssOptimizer.process( cssPathToXml, cssOutputPath, project.getBasedir().getAbsolutePath() );
-        JsOptimizer.process( jsPathToXml, jsOutputPath, settings );
+        OptimizerContext context = createContext();
+        try
+        {
+            optimize( context, null );
+        }
+        finally
+        {
+            context.shutdown();
+        }
+    }
+
+    /**
+     * Create optimizer context from mojo configuration
+     *
+     * @return optimizer context
+     */
+    protected OptimizerContext createContext()
+    {
+        OptimizerContext context = new OptimizerContext( new BuildCache( cacheDirectory, SessionCache.getInstance( settings ), project.getBasedir() ), threads );
+        ImageOptimizer imageOptimizer = optimizeImages ? new ImageOptimizer( context.getCache(), context.getImagePool() ) : null;
+        context.setImageInliner( new ImageInliner( inlineImageMaxSize, inlineFontMaxSize, new DataUriCache( dataUriCacheSize ), imageOptimizer ) );
+        context.setLimiter( context.getSession().getLimiter( maxCompilations ) );
+        context.getSession().setOutputsCapacity( sessionCacheSize );
+        context.setMode( getMode() );
+        context.setSpriteImageMaxSize( spriteImageMaxSize );
+        if ( gzip )
+        {
+            context.setCompressor( new GzipCompressor( gzipExhaustive ) );
+        }
+        if ( fingerprint )
+        {
+            context.setFingerprinter( new Fingerprinter( manifestName, fingerprintRetention ) );
+        }
+        if ( daemon )
+        {
+            DaemonClient client = new DaemonClient( new File( System.getProperty( "user.home" ), ".optimizer-daemon" ), daemonIdleTimeout );
+            context.setJsEngine( client.createJsEngine( context.getSession() ) );
+            context.setCssEngine( client.createCssEngine() );
+        }
+
+        return context;
+    }
+
+    /**
+     * Return optimization mode from mojo configuration or from <code>optimizer.mode</code> system or project property
+     *
+     * @return optimization mode
+     */
+    private OptimizationMode getMode()
+    {
+        String value = mode;
+        if ( value == null || value.trim().isEmpty() )
+        {
+            value = System.getProperty( MODE_PROPERTY );
+        }
+        if ( ( value == null || value.trim().isEmpty() ) && project != null )
+        {
+            value = project.getProperties().getProperty( MODE_PROPERTY );
+        }
+
+        return OptimizationMode.parse( value, OptimizationMode.ADVANCED );
+    }
+
+    /**
+     * Optimize css and java-script groups. Css and java-script optimization run at the same time.
+     *
+     * @param context      optimizer context
+     * @param changedFiles normalized absolute paths of changed files, <code>null</code> to optimize all groups
+     * @throws MojoExecutionException if optimization has been interrupted or failed
+     */
+    protected void optimize( final OptimizerContext context, final Set<String> changedFiles ) throws MojoExecutionException
+    {
+        final String baseDir = getBaseDir();
+        OptimizerReport report = new OptimizerReport();
+        context.setReport( report );
+
+        // css pipeline only waits for its groups, so it has its own thread outside of the worker pool
+        ExecutorService cssPipeline = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<?> css = cssPipeline.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    CssOptimizer.process( cssPathToXml, cssOutputPath, baseDir, context, changedFiles );
+                }
+            } );
+
+            JsOptimizer.process( jsPathToXml, jsOutputPath, settings, context, changedFiles );
+
+            css.get();
+
+            context.writeManifests();
+            context.getImageInliner().getCache().logStatistics();
+
+            report.logSummary();
+            report.write( getReportFile() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Optimization has been interrupted", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw ( RuntimeException ) e.getCause();
+            }
+
+            throw new MojoExecutionException( "Error occurred during processing css", e.getCause() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error occurred during writing asset manifest or report", e );
+        }
+        finally
+        {
+            cssPipeline.shutdownNow();
+        }
+    }
+
+    /**
+     * Return normalized absolute paths of configuration xml files, css and java-script files of all groups and images
+     * and fonts referenced by css
+     *
+     * @return input files of optimization
+     * @throws Exception if configuration xml could not be parsed
+     */
+    protected Set<String> getInputFiles() throws Exception
+    {
+        Set<String> inputs = new LinkedHashSet<>();
+        inputs.addAll( CssOptimizer.getInputFiles( cssPathToXml, getBaseDir() ) );
+        inputs.addAll( JsOptimizer.getInputFiles( jsPathToXml ) );
+
+        return inputs;
+    }
+
+    /**
+     * Return report file in project build directory
+     *
+     * @return report file
+     */
+    private File getReportFile()
+    {
+        String buildDirectory = project.getBuild() != null ? project.getBuild().getDirectory() : null;
+        File directory = buildDirectory != null ? new File( buildDirectory ) : new File( getBaseDir(), "target" );
+
+        return new File( directory, "optimizer-report.json" );
+    }
+
+    private String getBaseDir()
+    {
+        return project.getBasedir().getAbsolutePath();
     }
 }
@@ -0,0 +1,341 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.SourceFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * <p>In-memory cache shared by all plugin executions of one maven session.</p>
+ * <p>In multi-module build every module runs the plugin in the same JVM, mostly with the same external css and the
+ * same closure library. Session cache keeps shared handles of external stylesheets, content and hashes of java-script
+ * sources (closure library in particular), default externs and optimized group outputs keyed by build cache key (hash of
+ * all group inputs), so modules built later reuse what earlier modules have already done. Cache is thread safe, so
+ * modules built in parallel share it too.</p>
+ * <p>Cache lives as long as maven session - new cache is created as soon as plugin is executed with different
+ * session object.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class SessionCache
+{
+    private static Logger log = Logger.getLogger( SessionCache.class.getName() );
+
+    /**
+     * Default maximum total length of cached outputs in characters
+     */
+    public static final long DEFAULT_OUTPUTS_CAPACITY = 4 * 1024 * 1024;
+
+    private static SessionCache current;
+
+    /**
+     * Session cache belongs to, weakly referenced so finished session can be garbage collected
+     */
+    private final WeakReference<Object> session;
+
+    /**
+     * Handles of external stylesheets keyed by class-path resource
+     */
+    private final ConcurrentMap<String, ExternalCss> externalCss = new ConcurrentHashMap<>();
+
+    /**
+     * Content of java-script files keyed by absolute path
+     */
+    private final ConcurrentMap<String, CachedFile<String>> sources = new ConcurrentHashMap<>();
+
+    /**
+     * SHA-256 hashes of input files keyed by absolute path
+     */
+    private final ConcurrentMap<String, CachedFile<byte[]>> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Optimized outputs keyed by build cache key, least recently used first
+     */
+    private final LinkedHashMap<String, String> outputs = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private long outputsSize;
+
+    private long outputsCapacity = DEFAULT_OUTPUTS_CAPACITY;
+
+    /**
+     * Content of default externs keyed by extern name
+     */
+    private Map<String, String> externs;
+
+    private CompilationLimiter limiter;
+
+    /**
+     * Create session cache which is not shared with anyone
+     */
+    SessionCache()
+    {
+        this( null );
+    }
+
+    private SessionCache( Object session )
+    {
+        this.session = new WeakReference<>( session );
+    }
+
+    /**
+     * Return cache of maven session. If session is <code>null</code>, new cache which is not shared is returned.
+     *
+     * @param session object identifying maven session, e.g. session settings
+     * @return session cache
+     */
+    public static synchronized SessionCache getInstance( Object session )
+    {
+        if ( session == null )
+        {
+            return new SessionCache();
+        }
+
+        if ( current == null || current.session.get() != session )
+        {
+            log.fine( "Creating new session cache" );
+            current = new SessionCache( session );
+        }
+
+        return current;
+    }
+
+    /**
+     * Return handle of external stylesheet located in class-path. Handle is created once per session and shared by all
+     * groups, content of stylesheet is not read until a group acquires it.
+     *
+     * @param resource class-path resource of stylesheet
+     * @return handle of stylesheet or <code>null</code> if resource does not exist
+     */
+    public ExternalCss getExternalCss( String resource )
+    {
+        ExternalCss css = externalCss.get( resource );
+        if ( css == null )
+        {
+            URL url = SessionCache.class.getResource( resource );
+            if ( url == null )
+            {
+                return null;
+            }
+
+            css = new ExternalCss( resource, url );
+
+            ExternalCss previous = externalCss.putIfAbsent( resource, css );
+            if ( previous != null )
+            {
+                css = previous;
+            }
+        }
+
+        return css;
+    }
+
+    /**
+     * Return content of java-script file. Content is loaded once and reloaded only if file has been modified.
+     *
+     * @param file java-script file
+     * @return content of file
+     * @throws IOException if file could not be read
+     */
+    public String getSource( File file ) throws IOException
+    {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedFile<String> cached = sources.get( path );
+        if ( cached == null || !cached.isValid( lastModified, length ) )
+        {
+            cached = new CachedFile<>( Files.toString( file, Charsets.UTF_8 ), lastModified, length );
+            sources.put( path, cached );
+        }
+
+        return cached.value;
+    }
+
+    /**
+     * Return SHA-256 hash of file content. File is hashed once and hashed again only if it has been modified.
+     *
+     * @param file file to hash
+     * @return hash of file content
+     * @throws IOException if file could not be read
+     */
+    public byte[] getHash( File file ) throws IOException
+    {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedFile<byte[]> cached = hashes.get( path );
+        if ( cached == null || !cached.isValid( lastModified, length ) )
+        {
+            cached = new CachedFile<>( Files.hash( file, Hashing.sha256() ).asBytes(), lastModified, length );
+            hashes.put( path, cached );
+        }
+
+        return cached.value;
+    }
+
+    /**
+     * Return content of closure compiler default externs
+     *
+     * @return content of externs keyed by extern name
+     * @throws IOException if externs could not be loaded
+     */
+    public synchronized Map<String, String> getExterns() throws IOException
+    {
+        if ( externs == null )
+        {
+            Map<String, String> map = new LinkedHashMap<>();
+            for ( SourceFile extern : CommandLineRunner.getDefaultExterns() )
+            {
+                map.put( extern.getName(), extern.getCode() );
+            }
+
+            externs = Collections.unmodifiableMap( map );
+        }
+
+        return externs;
+    }
+
+    /**
+     * Return limiter of closure compilations shared by all plugin executions of the session. Limiter is created by
+     * the first execution, later executions share it regardless of their own configuration.
+     *
+     * @param maxCompilations maximum number of concurrent compilations, if less than 1 number of available
+     *                        processors is used
+     * @return compilation limiter
+     */
+    public synchronized CompilationLimiter getLimiter( int maxCompilations )
+    {
+        if ( limiter == null )
+        {
+            limiter = new CompilationLimiter( maxCompilations );
+        }
+
+        return limiter;
+    }
+
+    /**
+     * Return optimized output
+     *
+     * @param key build cache key of output
+     * @return output or <code>null</code> if output has not been cached in this session
+     */
+    public String getOutput( String key )
+    {
+        synchronized ( outputs )
+        {
+            return outputs.get( key );
+        }
+    }
+
+    /**
+     * Set maximum total length of cached outputs in characters, outputs exceeding new capacity are evicted.
+     * Capacity is shared by all plugin executions of the session, the last execution sets it.
+     *
+     * @param capacity maximum total length of cached outputs, outputs are not cached if less than 1
+     */
+    public void setOutputsCapacity( long capacity )
+    {
+        synchronized ( outputs )
+        {
+            outputsCapacity = Math.max( 0, capacity );
+            evictOutputs();
+        }
+    }
+
+    /**
+     * Store optimized output. The least recently used outputs are evicted if cache exceeds its capacity.
+     *
+     * @param key    build cache key of output
+     * @param output optimized output
+     */
+    public void putOutput( String key, String output )
+    {
+        synchronized ( outputs )
+        {
+            if ( output.length() > outputsCapacity )
+            {
+                return;
+            }
+
+            String previous = outputs.put( key, output );
+            if ( previous != null )
+            {
+                outputsSize -= previous.length();
+            }
+            outputsSize += output.length();
+
+            evictOutputs();
+        }
+    }
+
+    /**
+     * Evict the least recently used outputs until cache fits its capacity, caller holds lock of outputs
+     */
+    private void evictOutputs()
+    {
+        Iterator<String> eldest = outputs.values().iterator();
+        while ( outputsSize > outputsCapacity && eldest.hasNext() )
+        {
+            outputsSize -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Value derived from file content, valid as long as file is not modified
+     */
+    private static class CachedFile<T>
+    {
+        private final T value;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private CachedFile( T value, long lastModified, long length )
+        {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isValid( long lastModified, long length )
+        {
+            return this.lastModified == lastModified && this.length == length;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * <p>Packs images into PNG sprite sheets.</p>
+ * <p>Images are sorted by decreasing height and placed on shelves (first fit decreasing height), so every image
+ * lands on the first shelf with enough free width and shelf is opened only if none is found. Width of sheet is
+ * chosen to make sheet roughly square. If sheet would grow over {@link #MAX_SHEET_SIZE}, next sheet is started.
+ * Images are separated by transparent padding, so neighbours do not bleed in when scaled.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class SpritePacker
+{
+    private static Logger log = Logger.getLogger( SpritePacker.class.getName() );
+
+    /**
+     * Maximum width and height of sprite sheet in pixels
+     */
+    static final int MAX_SHEET_SIZE = 1024;
+
+    private static final int PADDING = 2;
+
+    /**
+     * Decode images and pack them into sheets. Images which could not be decoded or which do not fit into sheet
+     * are left out.
+     *
+     * @param images image files
+     * @return sprite sheets, empty if there is no image to pack
+     * @throws IOException if image could not be read
+     */
+    public static List<Sheet> pack( Collection<File> images ) throws IOException
+    {
+        return pack( images, MAX_SHEET_SIZE, new ArrayList<File>() );
+    }
+
+    /**
+     * Decode images and pack them into sheets. Images which could not be decoded are left out, images wider or
+     * higher than maximum size are left out and added to large images.
+     *
+     * @param images       image files
+     * @param maxImageSize maximum width and height of packed image in pixels
+     * @param large        collection images larger than maximum size are added to
+     * @return sprite sheets, empty if there is no image to pack
+     * @throws IOException if image could not be read
+     */
+    public static List<Sheet> pack( Collection<File> images, int maxImageSize, Collection<File> large ) throws IOException
+    {
+        int maxSize = Math.min( maxImageSize, MAX_SHEET_SIZE );
+
+        List<Sprite> sprites = new ArrayList<>();
+        long area = 0;
+        int widest = 0;
+
+        for ( File file : images )
+        {
+            BufferedImage image = ImageIO.read( file );
+            if ( image == null )
+            {
+                log.fine( "Image is not raster image, it will not be added to sprite: " + file.getPath() );
+                continue;
+            }
+            if ( image.getWidth() > maxSize || image.getHeight() > maxSize )
+            {
+                log.fine( "Image is larger than " + maxSize + " pixels, it will not be added to sprite: " + file.getPath() );
+                large.add( file );
+                continue;
+            }
+
+            sprites.add( new Sprite( file, image ) );
+            area += ( long ) ( image.getWidth() + PADDING ) * ( image.getHeight() + PADDING );
+            widest = Math.max( widest, image.getWidth() );
+        }
+
+        // path decides order of images of the same size, so layout does not depend on order of urls
+        Collections.sort( sprites, new Comparator<Sprite>()
+        {
+            @Override
+            public int compare( Sprite s1, Sprite s2 )
+            {
+                int result = s2.getHeight() - s1.getHeight();
+                if ( result == 0 )
+                {
+                    result = s2.getWidth() - s1.getWidth();
+                }
+                return result != 0 ? result : s1.getFile().getPath().compareTo( s2.getFile().getPath() );
+            }
+        } );
+
+        int width = ( int ) Math.min( MAX_SHEET_SIZE, Math.max( widest, Math.ceil( Math.sqrt( area ) ) ) );
+
+        List<Sheet> sheets = new ArrayList<>();
+        for ( Sprite sprite : sprites )
+        {
+            if ( !place( sprite, sheets ) )
+            {
+                Sheet sheet = new Sheet( width );
+                sheets.add( sheet );
+                sheet.addShelf( sprite );
+            }
+        }
+
+        return sheets;
+    }
+
+    /**
+     * Place sprite on first shelf with enough free space or open new shelf in first sheet with enough free height
+     *
+     * @param sprite sprite to place
+     * @param sheets sheets
+     * @return <code>true</code> if sprite has been placed, <code>false</code> if new sheet is needed
+     */
+    private static boolean place( Sprite sprite, List<Sheet> sheets )
+    {
+        for ( Sheet sheet : sheets )
+        {
+            for ( Shelf shelf : sheet.shelves )
+            {
+                if ( shelf.height >= sprite.getHeight() && shelf.x + sprite.getWidth() <= sheet.maxWidth )
+                {
+                    sheet.add( shelf, sprite );
+                    return true;
+                }
+            }
+        }
+
+        for ( Sheet sheet : sheets )
+        {
+            if ( sheet.height + sprite.getHeight() <= MAX_SHEET_SIZE )
+            {
+                sheet.addShelf( sprite );
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sprite sheet
+     */
+    public static class Sheet
+    {
+        private final int maxWidth;
+
+        private final List<Shelf> shelves = new ArrayList<>();
+
+        private final List<Sprite> sprites = new ArrayList<>();
+
+        private int width;
+
+        private int height;
+
+        private String url;
+
+        private Sheet( int maxWidth )
+        {
+            this.maxWidth = maxWidth;
+        }
+
+        private void addShelf( Sprite sprite )
+        {
+            Shelf shelf = new Shelf( height, sprite.getHeight() );
+            shelves.add( shelf );
+            height += sprite.getHeight() + PADDING;
+
+            add( shelf, sprite );
+        }
+
+        private void add( Shelf shelf, Sprite sprite )
+        {
+            sprite.sheet = this;
+            sprite.x = shelf.x;
+            sprite.y = shelf.y;
+            sprites.add( sprite );
+
+            shelf.x += sprite.getWidth() + PADDING;
+            width = Math.max( width, sprite.x + sprite.getWidth() );
+        }
+
+        public List<Sprite> getSprites()
+        {
+            return sprites;
+        }
+
+        /**
+         * Draw sprites into sheet and encode it as PNG
+         *
+         * @return PNG content of sheet
+         * @throws IOException if sheet could not be encoded
+         */
+        public byte[] render() throws IOException
+        {
+            BufferedImage image = new BufferedImage( width, height - PADDING, BufferedImage.TYPE_INT_ARGB );
+
+            Graphics2D graphics = image.createGraphics();
+            try
+            {
+                for ( Sprite sprite : sprites )
+                {
+                    graphics.drawImage( sprite.image, sprite.x, sprite.y, null );
+                }
+            }
+            finally
+            {
+                graphics.dispose();
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write( image, "png", out );
+
+            return out.toByteArray();
+        }
+
+        /**
+         * Return url of sheet relative to css output
+         *
+         * @return url of sheet
+         */
+        public String getUrl()
+        {
+            return url;
+        }
+
+        public void setUrl( String url )
+        {
+            this.url = url;
+        }
+    }
+
+    /**
+     * Image placed in sheet
+     */
+    public static class Sprite
+    {
+        private final File file;
+
+        private final BufferedImage image;
+
+        private Sheet sheet;
+
+        private int x;
+
+        private int y;
+
+        private Sprite( File file, BufferedImage image )
+        {
+            this.file = file;
+            this.image = image;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public Sheet getSheet()
+        {
+            return sheet;
+        }
+
+        public int getX()
+        {
+            return x;
+        }
+
+        public int getY()
+        {
+            return y;
+        }
+
+        public int getWidth()
+        {
+            return image.getWidth();
+        }
+
+        public int getHeight()
+        {
+            return image.getHeight();
+        }
+    }
+
+    /**
+     * Row of sprites with height of its first (highest) sprite
+     */
+    private static class Shelf
+    {
+        private final int y;
+
+        private final int height;
+
+        private int x;
+
+        private Shelf( int y, int height )
+        {
+            this.y = y;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Web resource watch mojo.</p>
+ * <p>Optimizes all groups once and then watches configuration xml files, css and java-script files of all groups and
+ * images and fonts referenced by css. Watched files are read again from configuration and css after every
+ * optimization, so newly referenced images are watched as well. A burst of changes is collected until no change
+ * arrives within the debounce interval, then only groups whose inputs have changed are optimized again. Optimizer
+ * context is kept for the whole session, so compilers, externs and loaded sources stay warm in the running JVM.
+ * Change of configuration xml optimizes all its groups.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ * @goal watch
+ * @requiresDirectInvocation true
+ */
+public class WatchMojo
+        extends ResourceOptimizerMojo
+{
+    private static Logger log = Logger.getLogger( WatchMojo.class.getName() );
+
+    /**
+     * @parameter watchDebounce
+     */
+    private long watchDebounce = 200;
+
+    /**
+     * Set interval in milliseconds without any change after which collected changes are optimized.
+     * Defaults to 200 ms.
+     *
+     * @param watchDebounce debounce interval in milliseconds
+     */
+    public void setWatchDebounce( long watchDebounce )
+    {
+        this.watchDebounce = watchDebounce;
+    }
+
+    /**
+     * Execute watch mojo. Runs until maven is terminated.
+     *
+     * @throws MojoExecutionException if {@link MojoExecutionException} occurs
+     * @throws MojoFailureException   if {@link MojoFailureException} occurs
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        OptimizerContext context = createContext();
+        try ( WatchService watchService = FileSystems.getDefault().newWatchService() )
+        {
+            optimize( context, null );
+
+            Map<WatchKey, Path> directories = new HashMap<>();
+            Set<String> inputs = Collections.emptySet();
+
+            while ( !Thread.currentThread().isInterrupted() )
+            {
+                inputs = register( watchService, directories, inputs );
+                log.info( "Watching " + inputs.size() + " files for changes..." );
+
+                Set<String> changedFiles = waitForChanges( watchService, directories );
+                if ( changedFiles != null )
+                {
+                    changedFiles.retainAll( inputs );
+                    if ( changedFiles.isEmpty() )
+                    {
+                        continue;
+                    }
+                }
+
+                log.info( "Changed files: " + ( changedFiles != null ? changedFiles : "too many, optimizing all groups" ) );
+
+                long start = System.currentTimeMillis();
+                context.refresh();
+                optimize( context, changedFiles );
+                log.info( "Changes optimized in " + ( System.currentTimeMillis() - start ) + " ms" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error occurred during watching files", e );
+        }
+        finally
+        {
+            context.shutdown();
+        }
+    }
+
+    /**
+     * Register directories of input files which are not registered yet. Input files are read again from
+     * configuration, so new groups and files are watched as well.
+     *
+     * @param watchService watch service
+     * @param directories  registered directories keyed by watch key
+     * @param inputs       input files of previous optimization
+     * @return current input files
+     * @throws IOException if directory could not be registered
+     */
+    private Set<String> register( WatchService watchService, Map<WatchKey, Path> directories, Set<String> inputs )
+            throws IOException
+    {
+        Set<String> current;
+        try
+        {
+            current = getInputFiles();
+        }
+        catch ( Exception e )
+        {
+            // configuration xml is probably being edited, keep watching previous inputs
+            log.log( Level.SEVERE, "Error occurred during reading configuration: ", e );
+            return inputs;
+        }
+
+        Set<Path> registered = new HashSet<>( directories.values() );
+        for ( String input : current )
+        {
+            Path directory = Paths.get( input ).getParent();
+            if ( directory != null && Files.isDirectory( directory ) && registered.add( directory ) )
+            {
+                WatchKey key = directory.register( watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY );
+                directories.put( key, directory );
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Wait for changes and collect them until no change comes within debounce interval
+     *
+     * @param watchService watch service
+     * @param directories  registered directories keyed by watch key
+     * @return normalized absolute paths of changed files or <code>null</code> if events have been lost and all
+     * groups have to be optimized
+     * @throws InterruptedException if waiting has been interrupted
+     */
+    private Set<String> waitForChanges( WatchService watchService, Map<WatchKey, Path> directories )
+            throws InterruptedException
+    {
+        Set<String> changedFiles = new HashSet<>();
+        boolean overflow = false;
+
+        WatchKey key = watchService.take();
+        while ( key != null )
+        {
+            Path directory = directories.get( key );
+            for ( WatchEvent<?> event : key.pollEvents() )
+            {
+                if ( event.kind() == StandardWatchEventKinds.OVERFLOW )
+                {
+                    overflow = true;
+                }
+                else if ( directory != null )
+                {
+                    Path file = directory.resolve( ( Path ) event.context() );
+                    changedFiles.add( file.toAbsolutePath().normalize().toString() );
+                }
+            }
+
+            if ( !key.reset() )
+            {
+                directories.remove( key );
+            }
+
+            key = watchService.poll( watchDebounce, TimeUnit.MILLISECONDS );
+        }
+
+        return overflow ? null : changedFiles;
+    }
+}
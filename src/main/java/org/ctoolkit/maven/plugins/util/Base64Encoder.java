@@ -0,0 +1,83 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base64 encoder writing encoded characters directly into target {@link StringBuilder}, without intermediate
+ * byte array or string copy of encoded data
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class Base64Encoder
+{
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * Return length of base64 encoded data
+     *
+     * @param length length of data to encode
+     * @return length of encoded data
+     */
+    public static long encodedLength( long length )
+    {
+        return ( ( length + 2 ) / 3 ) * 4;
+    }
+
+    /**
+     * Encode remaining bytes of buffer and append them to output. Position of buffer is moved to its limit.
+     *
+     * @param data   data to encode
+     * @param output output to append encoded data to
+     */
+    public static void encode( ByteBuffer data, StringBuilder output )
+    {
+        output.ensureCapacity( ( int ) ( output.length() + encodedLength( data.remaining() ) ) );
+
+        while ( data.remaining() >= 3 )
+        {
+            int bits = ( data.get() & 0xff ) << 16 | ( data.get() & 0xff ) << 8 | ( data.get() & 0xff );
+
+            output.append( ALPHABET[bits >>> 18] )
+                    .append( ALPHABET[( bits >>> 12 ) & 0x3f] )
+                    .append( ALPHABET[( bits >>> 6 ) & 0x3f] )
+                    .append( ALPHABET[bits & 0x3f] );
+        }
+
+        if ( data.remaining() == 2 )
+        {
+            int bits = ( data.get() & 0xff ) << 16 | ( data.get() & 0xff ) << 8;
+
+            output.append( ALPHABET[bits >>> 18] )
+                    .append( ALPHABET[( bits >>> 12 ) & 0x3f] )
+                    .append( ALPHABET[( bits >>> 6 ) & 0x3f] )
+                    .append( '=' );
+        }
+        else if ( data.remaining() == 1 )
+        {
+            int bits = ( data.get() & 0xff ) << 16;
+
+            output.append( ALPHABET[bits >>> 18] )
+                    .append( ALPHABET[( bits >>> 12 ) & 0x3f] )
+                    .append( "==" );
+        }
+    }
+}
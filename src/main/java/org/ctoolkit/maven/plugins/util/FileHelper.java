@@ -19,8 +19,6 @@
 
 package org.ctoolkit.maven.plugins.util;
 
-import com.google.common.io.Files;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.logging.Level;
@@ -46,6 +44,17 @@ public class FileHelper
         return System.getProperty( "user.dir" ) + File.separator + path;
     }
 
+    /**
+     * Return absolute normalized path, so different spellings of the same path can be compared
+     *
+     * @param path file path
+     * @return absolute normalized path
+     */
+    public static String normalizePath( String path )
+    {
+        return new File( path ).toPath().toAbsolutePath().normalize().toString();
+    }
+
     /**
      * Creates output file
      *
@@ -72,7 +81,8 @@ public class FileHelper
     }
 
     /**
-     * Write content into file
+     * Write content into file in UTF-8. File is replaced atomically and it is not touched at all if it already has
+     * the same content.
      *
      * @param file    file to write
      * @param content content of file
@@ -82,7 +92,10 @@ public class FileHelper
     {
         try
         {
-            Files.write( content.getBytes(), new File( file.getPath() ) );
+            if ( !OutputWriter.write( file, content ) )
+            {
+                log.info( "Output file is unchanged: " + file.getAbsolutePath() );
+            }
         } catch ( IOException e ) {
             log.log( Level.SEVERE, "Error occurred during creating file '" + file.getAbsolutePath() + "'", e );
         }
@@ -0,0 +1,277 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.util;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>Writes pre-compressed <code>.gz</code> sibling of output file, which can be served by web server directly.</p>
+ * <p>Content is encoded to UTF-8 chunk by chunk straight into deflater with maximum compression level. In exhaustive
+ * mode every chunk is fed to deflaters of every compression level combined with default and filtered strategy at
+ * once and the smallest result is kept. Compressed file is written through {@link OutputWriter}, so it is replaced
+ * atomically. Compression settings are stored in gzip extra field and compression is skipped if existing
+ * <code>.gz</code> file has been written with the same settings and already contains the same content - CRC32 and
+ * size stored in gzip trailer are compared with the content.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class GzipCompressor
+{
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+    /**
+     * Identifier of gzip extra subfield holding compression settings
+     */
+    private static final byte[] SUBFIELD_ID = {'O', 'P'};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean exhaustive;
+
+    /**
+     * Compression settings stored in extra field of written file - <code>b</code> for best compression level only,
+     * <code>x</code> for exhaustive search
+     */
+    private final byte[] settings;
+
+    /**
+     * Create compressor
+     *
+     * @param exhaustive <code>true</code> to try all compression levels and deflate strategies and keep the smallest
+     *                   output
+     */
+    public GzipCompressor( boolean exhaustive )
+    {
+        this.exhaustive = exhaustive;
+        this.settings = ( exhaustive ? "x" : "b" ).getBytes( Charsets.US_ASCII );
+    }
+
+    /**
+     * Write compressed content to <code>.gz</code> sibling of file
+     *
+     * @param file    full path of output file
+     * @param content content of output file
+     * @return full path of compressed file or <code>null</code> if it is up to date
+     * @throws IOException if compressed file could not be written
+     */
+    public String compress( String file, CharSequence content ) throws IOException
+    {
+        File gzFile = new File( file + ".gz" );
+        long size = OutputWriter.utf8Length( content );
+
+        if ( isUpToDate( gzFile, content, size ) )
+        {
+            return null;
+        }
+
+        final List<Trial> trials = new ArrayList<>();
+        trials.add( new Trial( Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY, size ) );
+        if ( exhaustive )
+        {
+            for ( int level = Deflater.BEST_COMPRESSION; level >= Deflater.BEST_SPEED; level-- )
+            {
+                for ( int strategy : STRATEGIES )
+                {
+                    if ( level != Deflater.BEST_COMPRESSION || strategy != Deflater.DEFAULT_STRATEGY )
+                    {
+                        trials.add( new Trial( level, strategy, size ) );
+                    }
+                }
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        try
+        {
+            OutputWriter.encode( content, Channels.newChannel( new OutputStream()
+            {
+                @Override
+                public void write( int b ) throws IOException
+                {
+                    write( new byte[]{( byte ) b}, 0, 1 );
+                }
+
+                @Override
+                public void write( byte[] b, int off, int len ) throws IOException
+                {
+                    crc.update( b, off, len );
+                    for ( Trial trial : trials )
+                    {
+                        trial.stream.write( b, off, len );
+                    }
+                }
+            } ), null );
+
+            Trial smallest = null;
+            for ( Trial trial : trials )
+            {
+                trial.stream.finish();
+                if ( smallest == null || trial.out.size() < smallest.out.size() )
+                {
+                    smallest = trial;
+                }
+            }
+
+            ByteArrayOutputStream gz = new ByteArrayOutputStream( smallest.out.size() + settings.length + 32 );
+            writeHeader( gz );
+            smallest.out.writeTo( gz );
+            writeInt( gz, ( int ) crc.getValue() );
+            writeInt( gz, ( int ) size );
+
+            OutputWriter.write( gzFile, gz.toByteArray() );
+        }
+        finally
+        {
+            for ( Trial trial : trials )
+            {
+                trial.deflater.end();
+            }
+        }
+
+        return gzFile.getAbsolutePath();
+    }
+
+    /**
+     * Write gzip header with extra field holding compression settings
+     *
+     * @param out output stream
+     */
+    private void writeHeader( ByteArrayOutputStream out )
+    {
+        out.write( 0x1f );
+        out.write( 0x8b );
+        out.write( 8 ); // deflate
+        out.write( 4 ); // FEXTRA flag
+        writeInt( out, 0 ); // no modification time, so output does not change between builds
+        out.write( 2 ); // maximum compression
+        out.write( 255 ); // unknown operating system
+
+        writeShort( out, SUBFIELD_ID.length + 2 + settings.length );
+        out.write( SUBFIELD_ID, 0, SUBFIELD_ID.length );
+        writeShort( out, settings.length );
+        out.write( settings, 0, settings.length );
+    }
+
+    /**
+     * Check if compressed file has been written with the same settings and contains content. Gzip trailer stores
+     * CRC32 and size of uncompressed data, both are little-endian integers in the last 8 bytes of file.
+     *
+     * @param gzFile  compressed file
+     * @param content uncompressed content
+     * @param size    size of UTF-8 encoded content
+     * @return <code>true</code> if compressed file contains the same content
+     * @throws IOException if compressed file could not be read
+     */
+    private boolean isUpToDate( File gzFile, CharSequence content, long size ) throws IOException
+    {
+        int headerLength = 12 + SUBFIELD_ID.length + 2 + settings.length;
+        if ( !gzFile.isFile() || gzFile.length() < headerLength + 8 )
+        {
+            return false;
+        }
+
+        byte[] header = new byte[headerLength];
+        byte[] trailer = new byte[8];
+        try ( RandomAccessFile in = new RandomAccessFile( gzFile, "r" ) )
+        {
+            in.readFully( header );
+            in.seek( in.length() - trailer.length );
+            in.readFully( trailer );
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream( headerLength );
+        writeHeader( expected );
+        if ( !Arrays.equals( header, expected.toByteArray() ) || readInt( trailer, 4 ) != ( int ) size )
+        {
+            return false;
+        }
+
+        final CRC32 crc = new CRC32();
+        OutputWriter.encode( content, Channels.newChannel( new OutputStream()
+        {
+            @Override
+            public void write( int b )
+            {
+                crc.update( b );
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len )
+            {
+                crc.update( b, off, len );
+            }
+        } ), null );
+
+        return readInt( trailer, 0 ) == ( int ) crc.getValue();
+    }
+
+    private static int readInt( byte[] bytes, int offset )
+    {
+        return ( bytes[offset] & 0xff )
+                | ( bytes[offset + 1] & 0xff ) << 8
+                | ( bytes[offset + 2] & 0xff ) << 16
+                | ( bytes[offset + 3] & 0xff ) << 24;
+    }
+
+    private static void writeInt( ByteArrayOutputStream out, int value )
+    {
+        writeShort( out, value );
+        writeShort( out, value >>> 16 );
+    }
+
+    private static void writeShort( ByteArrayOutputStream out, int value )
+    {
+        out.write( value & 0xff );
+        out.write( ( value >>> 8 ) & 0xff );
+    }
+
+    /**
+     * Compression with one combination of compression level and deflate strategy
+     */
+    private static class Trial
+    {
+        private final Deflater deflater;
+
+        private final ByteArrayOutputStream out;
+
+        private final DeflaterOutputStream stream;
+
+        private Trial( int level, int strategy, long size )
+        {
+            deflater = new Deflater( level, true );
+            deflater.setStrategy( strategy );
+            out = new ByteArrayOutputStream( ( int ) Math.min( Integer.MAX_VALUE, size / 3 + 64 ) );
+            stream = new DeflaterOutputStream( out, deflater, BUFFER_SIZE );
+        }
+    }
+}
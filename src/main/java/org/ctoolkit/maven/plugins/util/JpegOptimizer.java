@@ -0,0 +1,207 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Lossless JPEG optimizer.</p>
+ * <p>Segments which do not affect decoded image are stripped - comments, EXIF, XMP, Photoshop and other application
+ * segments. JFIF header, ICC profile and Adobe segment (color transform) are kept, EXIF is kept if it rotates the
+ * image. Entropy coded data are copied as they are, so decoded pixels are exactly the same.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class JpegOptimizer
+{
+    private static final int SOI = 0xd8;
+
+    private static final int SOS = 0xda;
+
+    private static final int APP0 = 0xe0;
+
+    private static final int APP1 = 0xe1;
+
+    private static final int APP2 = 0xe2;
+
+    private static final int APP14 = 0xee;
+
+    private static final int APP15 = 0xef;
+
+    private static final int COM = 0xfe;
+
+    private static final int EXIF_ORIENTATION = 0x0112;
+
+    /**
+     * Optimize JPEG image
+     *
+     * @param jpeg content of JPEG image
+     * @return optimized image or <code>null</code> if image is not valid JPEG or it has nothing to strip
+     */
+    public static byte[] optimize( byte[] jpeg )
+    {
+        if ( jpeg.length < 4 || ( jpeg[0] & 0xff ) != 0xff || ( jpeg[1] & 0xff ) != SOI )
+        {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( jpeg.length );
+        out.write( jpeg, 0, 2 );
+
+        int position = 2;
+        while ( position + 4 <= jpeg.length )
+        {
+            if ( ( jpeg[position] & 0xff ) != 0xff )
+            {
+                return null;
+            }
+
+            int marker = jpeg[position + 1] & 0xff;
+            if ( marker == 0xff )
+            {
+                // fill byte
+                position++;
+                continue;
+            }
+
+            if ( marker == SOS )
+            {
+                // scan data and everything after it is copied as it is
+                out.write( jpeg, position, jpeg.length - position );
+                break;
+            }
+
+            int length = ( jpeg[position + 2] & 0xff ) << 8 | jpeg[position + 3] & 0xff;
+            if ( length < 2 || position + 2 + length > jpeg.length )
+            {
+                return null;
+            }
+
+            if ( isKept( marker, jpeg, position + 4, length - 2 ) )
+            {
+                out.write( jpeg, position, length + 2 );
+            }
+
+            position += length + 2;
+        }
+
+        return out.size() < jpeg.length ? out.toByteArray() : null;
+    }
+
+    /**
+     * Return <code>true</code> if segment affects decoded image
+     *
+     * @param marker marker of segment
+     * @param jpeg   content of image
+     * @param offset offset of segment data
+     * @param length length of segment data
+     * @return <code>true</code> if segment has to be kept
+     */
+    private static boolean isKept( int marker, byte[] jpeg, int offset, int length )
+    {
+        if ( marker == COM )
+        {
+            return false;
+        }
+
+        if ( marker < APP0 || marker > APP15 )
+        {
+            return true;
+        }
+
+        switch ( marker )
+        {
+            case APP0:
+                return startsWith( jpeg, offset, length, "JFIF\0" );
+            case APP1:
+                return startsWith( jpeg, offset, length, "Exif\0\0" ) && isRotated( jpeg, offset + 6, length - 6 );
+            case APP2:
+                return startsWith( jpeg, offset, length, "ICC_PROFILE\0" );
+            case APP14:
+                return startsWith( jpeg, offset, length, "Adobe" );
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return <code>true</code> if EXIF orientation tag of the first image directory is present and it is not
+     * the default orientation
+     *
+     * @param jpeg   content of image
+     * @param offset offset of TIFF header
+     * @param length length of TIFF data
+     * @return <code>true</code> if image is rotated or mirrored by EXIF
+     */
+    private static boolean isRotated( byte[] jpeg, int offset, int length )
+    {
+        if ( length < 8 )
+        {
+            // keep what can not be read
+            return true;
+        }
+
+        ByteBuffer tiff = ByteBuffer.wrap( jpeg, offset, length ).slice();
+        tiff.order( tiff.get( 0 ) == 'M' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN );
+
+        int directory = tiff.getInt( 4 );
+        if ( directory < 8 || directory + 2 > length )
+        {
+            return true;
+        }
+
+        int entries = tiff.getShort( directory ) & 0xffff;
+        for ( int i = 0; i < entries; i++ )
+        {
+            int entry = directory + 2 + i * 12;
+            if ( entry + 12 > length )
+            {
+                return true;
+            }
+
+            if ( ( tiff.getShort( entry ) & 0xffff ) == EXIF_ORIENTATION )
+            {
+                return ( tiff.getShort( entry + 8 ) & 0xffff ) != 1;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean startsWith( byte[] jpeg, int offset, int length, String prefix )
+    {
+        if ( length < prefix.length() )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < prefix.length(); i++ )
+        {
+            if ( jpeg[offset + i] != prefix.charAt( i ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
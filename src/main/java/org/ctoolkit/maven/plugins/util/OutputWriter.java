@@ -0,0 +1,247 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Writes output files atomically and only if their content has changed.</p>
+ * <p>Content is encoded to UTF-8 in chunks straight into {@link FileChannel} of temporary file, which is then
+ * renamed to the output file, so nobody ever sees partially written output. If output file already exists and has
+ * the same size and hash as encoded content, it is left untouched together with its modification time, so packaging
+ * and hot deployment steps which follow optimization are not triggered needlessly.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class OutputWriter
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Write content to file in UTF-8
+     *
+     * @param file    file to write
+     * @param content content of file
+     * @return <code>true</code> if file has been written, <code>false</code> if it already has the same content
+     * @throws IOException if file could not be written
+     */
+    public static boolean write( File file, CharSequence content ) throws IOException
+    {
+        if ( isUpToDate( file, content ) )
+        {
+            return false;
+        }
+
+        File tempFile = File.createTempFile( "." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile() );
+        try
+        {
+            try ( FileChannel channel = FileChannel.open( tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+            {
+                encode( content, channel, null );
+            }
+
+            move( tempFile, file );
+        }
+        finally
+        {
+            // temporary file is left behind only if writing has failed
+            tempFile.delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write binary content to file
+     *
+     * @param file    file to write
+     * @param content content of file
+     * @return <code>true</code> if file has been written, <code>false</code> if it already has the same content
+     * @throws IOException if file could not be written
+     */
+    public static boolean write( File file, byte[] content ) throws IOException
+    {
+        if ( file.isFile() && file.length() == content.length
+                && Hashing.sha256().hashBytes( content ).equals( Files.hash( file, Hashing.sha256() ) ) )
+        {
+            return false;
+        }
+
+        File tempFile = File.createTempFile( "." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile() );
+        try
+        {
+            Files.write( content, tempFile );
+            move( tempFile, file );
+        }
+        finally
+        {
+            tempFile.delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Replace file by temporary file, atomically if file system supports it
+     *
+     * @param tempFile temporary file
+     * @param file     target file
+     * @throws IOException if file could not be moved
+     */
+    private static void move( File tempFile, File file ) throws IOException
+    {
+        try
+        {
+            java.nio.file.Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( AtomicMoveNotSupportedException e )
+        {
+            java.nio.file.Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+
+    /**
+     * Return length of text encoded in UTF-8 without encoding it. Malformed surrogates are counted as one byte
+     * replacement character the same way they are written.
+     *
+     * @param text text
+     * @return length of UTF-8 encoded text in bytes
+     */
+    public static long utf8Length( CharSequence text )
+    {
+        long length = 0;
+        for ( int i = 0; i < text.length(); i++ )
+        {
+            char c = text.charAt( i );
+            if ( c < 0x80 )
+            {
+                length++;
+            }
+            else if ( c < 0x800 )
+            {
+                length += 2;
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < text.length() && Character.isLowSurrogate( text.charAt( i + 1 ) ) )
+            {
+                length += 4;
+                i++;
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                length++;
+            }
+            else
+            {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Check if file already contains content. Sizes are compared first, so content is hashed only if file has the
+     * same size as encoded content.
+     *
+     * @param file    file to check
+     * @param content expected content of file
+     * @return <code>true</code> if file contains the same content
+     * @throws IOException if file could not be read
+     */
+    private static boolean isUpToDate( File file, CharSequence content ) throws IOException
+    {
+        if ( !file.isFile() || file.length() != utf8Length( content ) )
+        {
+            return false;
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        encode( content, null, hasher );
+
+        return hasher.hash().equals( Files.hash( file, Hashing.sha256() ) );
+    }
+
+    /**
+     * Encode content to UTF-8 chunk by chunk and pass every chunk to channel and/or hasher
+     *
+     * @param content content to encode
+     * @param channel channel to write encoded content to, may be <code>null</code>
+     * @param hasher  hasher to put encoded content to, may be <code>null</code>
+     * @throws IOException if encoded content could not be written
+     */
+    static void encode( CharSequence content, WritableByteChannel channel, Hasher hasher ) throws IOException
+    {
+        CharsetEncoder encoder = Charsets.UTF_8.newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+
+        CharBuffer in = CharBuffer.wrap( content );
+        ByteBuffer out = ByteBuffer.allocate( ( int ) Math.min( BUFFER_SIZE, content.length() * 3L + 16 ) );
+
+        CoderResult result;
+        do
+        {
+            result = encoder.encode( in, out, true );
+            drain( out, channel, hasher );
+        }
+        while ( result.isOverflow() );
+
+        while ( encoder.flush( out ).isOverflow() )
+        {
+            drain( out, channel, hasher );
+        }
+        drain( out, channel, hasher );
+    }
+
+    private static void drain( ByteBuffer out, WritableByteChannel channel, Hasher hasher ) throws IOException
+    {
+        out.flip();
+
+        if ( hasher != null )
+        {
+            hasher.putBytes( out.array(), out.arrayOffset() + out.position(), out.remaining() );
+        }
+        if ( channel != null )
+        {
+            while ( out.hasRemaining() )
+            {
+                channel.write( out );
+            }
+        }
+
+        out.clear();
+    }
+}
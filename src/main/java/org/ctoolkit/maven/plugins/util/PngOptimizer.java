@@ -0,0 +1,606 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.ctoolkit.maven.plugins.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Lossless PNG optimizer.</p>
+ * <p>Ancillary chunks which do not affect rendering (text, time, physical size, background, ...) are stripped and
+ * image data is re-compressed. Pixels are unfiltered and filtered again with every PNG filter type and with adaptive
+ * per-row filter, every variant is deflated with several strategies and the smallest one is kept. Compression trials
+ * run in parallel on given executor, as many at once as fit {@link #TRIALS_MEMORY}. Interlaced images are only
+ * re-compressed with their original filters. Image data are never inflated beyond the size declared by image header,
+ * images larger than {@link #MAX_RAW_SIZE}, animated PNGs and images with unknown critical chunks are left
+ * untouched.</p>
+ *
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class PngOptimizer
+{
+    private static final byte[] SIGNATURE = {( byte ) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a};
+
+    /**
+     * Ancillary chunks which affect rendering, all other ancillary chunks are stripped
+     */
+    private static final Set<String> KEPT_CHUNKS = new HashSet<>( Arrays.asList( "tRNS", "gAMA", "cHRM", "sRGB", "iCCP", "sBIT" ) );
+
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+    /**
+     * Pseudo filter type - filter type is chosen for every row separately
+     */
+    private static final int ADAPTIVE = 5;
+
+    /**
+     * Pseudo filter type - original filters of image are kept
+     */
+    private static final int ORIGINAL = -1;
+
+    /**
+     * Maximum size of filtered pixel data of optimized image
+     */
+    private static final long MAX_RAW_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Maximum estimated memory of compression trials of one image running at the same time
+     */
+    private static final long TRIALS_MEMORY = 32 * 1024 * 1024;
+
+    /**
+     * Adam7 passes - horizontal start, vertical start, horizontal step and vertical step
+     */
+    private static final int[][] ADAM7 = {{0, 0, 8, 8}, {4, 0, 8, 8}, {0, 4, 4, 8}, {2, 0, 4, 4}, {0, 2, 2, 4}, {1, 0, 2, 2}, {0, 1, 1, 2}};
+
+    /**
+     * Optimize PNG image
+     *
+     * @param png      content of PNG image
+     * @param executor executor of compression trials
+     * @return optimized image or <code>null</code> if image is not valid PNG, can not be optimized or would not be
+     * smaller
+     * @throws IOException if compression trial has failed
+     */
+    public static byte[] optimize( byte[] png, ExecutorService executor ) throws IOException
+    {
+        if ( png.length < SIGNATURE.length || !Arrays.equals( Arrays.copyOf( png, SIGNATURE.length ), SIGNATURE ) )
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( png, SIGNATURE.length, png.length - SIGNATURE.length );
+
+        List<Chunk> chunks = new ArrayList<>();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream( png.length );
+        Chunk header = null;
+        int idatIndex = -1;
+
+        while ( buffer.remaining() >= 12 )
+        {
+            int length = buffer.getInt();
+            if ( length < 0 || buffer.remaining() < length + 8 )
+            {
+                return null;
+            }
+
+            byte[] typeBytes = new byte[4];
+            buffer.get( typeBytes );
+            String type = new String( typeBytes, "US-ASCII" );
+
+            byte[] data = new byte[length];
+            buffer.get( data );
+            buffer.getInt(); // CRC is computed again for every written chunk
+
+            switch ( type )
+            {
+                case "IHDR":
+                    header = new Chunk( type, data );
+                    chunks.add( header );
+                    break;
+                case "IDAT":
+                    if ( idatIndex < 0 )
+                    {
+                        idatIndex = chunks.size();
+                    }
+                    compressed.write( data, 0, data.length );
+                    break;
+                case "IEND":
+                    break;
+                case "PLTE":
+                    chunks.add( new Chunk( type, data ) );
+                    break;
+                case "acTL":
+                    // animated PNG, frames would need to be re-compressed as well
+                    return null;
+                default:
+                    if ( Character.isUpperCase( type.charAt( 0 ) ) )
+                    {
+                        // unknown critical chunk
+                        return null;
+                    }
+                    if ( KEPT_CHUNKS.contains( type ) )
+                    {
+                        chunks.add( new Chunk( type, data ) );
+                    }
+            }
+
+            if ( "IEND".equals( type ) )
+            {
+                break;
+            }
+        }
+
+        if ( header == null || header.data.length != 13 || idatIndex < 0 )
+        {
+            return null;
+        }
+
+        long filteredSize = getFilteredSize( ByteBuffer.wrap( header.data ) );
+        if ( filteredSize < 0 || filteredSize > MAX_RAW_SIZE )
+        {
+            return null;
+        }
+
+        byte[] filtered = inflate( compressed.toByteArray(), ( int ) filteredSize );
+        if ( filtered == null )
+        {
+            return null;
+        }
+
+        byte[] idat = findSmallest( filtered, ByteBuffer.wrap( header.data ), executor );
+        if ( idat == null )
+        {
+            return null;
+        }
+
+        chunks.add( idatIndex, new Chunk( "IDAT", idat ) );
+        chunks.add( new Chunk( "IEND", new byte[0] ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( png.length );
+        out.write( SIGNATURE, 0, SIGNATURE.length );
+        for ( Chunk chunk : chunks )
+        {
+            chunk.writeTo( out );
+        }
+
+        return out.size() < png.length ? out.toByteArray() : null;
+    }
+
+    /**
+     * Filter and deflate image data in all combinations of filter type and deflate strategy and return the
+     * smallest result
+     *
+     * @param filtered image data with original filters
+     * @param header   content of <code>IHDR</code> chunk
+     * @param executor executor of compression trials
+     * @return the smallest deflated image data or <code>null</code> if image data are corrupted
+     * @throws IOException if compression trial has failed
+     */
+    private static byte[] findSmallest( final byte[] filtered, ByteBuffer header, ExecutorService executor ) throws IOException
+    {
+        int width = header.getInt();
+        final int height = header.getInt();
+        int bitDepth = header.get();
+        int colorType = header.get();
+        header.get(); // compression method
+        header.get(); // filter method
+        int interlace = header.get();
+
+        int channels = getChannels( colorType );
+        if ( channels == 0 )
+        {
+            return null;
+        }
+
+        long bitsPerPixel = ( long ) channels * bitDepth;
+        final int rowBytes = ( int ) ( ( width * bitsPerPixel + 7 ) / 8 );
+        final int bytesPerPixel = ( int ) Math.max( 1, bitsPerPixel / 8 );
+
+        final byte[] raw;
+        List<Integer> filters = new ArrayList<>();
+        filters.add( ORIGINAL );
+
+        if ( interlace == 0 )
+        {
+            if ( filtered.length < ( long ) ( rowBytes + 1 ) * height )
+            {
+                return null;
+            }
+
+            raw = unfilter( filtered, rowBytes, bytesPerPixel, height );
+            if ( raw == null )
+            {
+                return null;
+            }
+
+            for ( int filter = 0; filter <= ADAPTIVE; filter++ )
+            {
+                filters.add( filter );
+            }
+        }
+        else
+        {
+            raw = null;
+        }
+
+        List<Callable<byte[]>> trials = new ArrayList<>();
+        for ( final int filter : filters )
+        {
+            for ( final int strategy : STRATEGIES )
+            {
+                trials.add( new Callable<byte[]>()
+                {
+                    @Override
+                    public byte[] call()
+                    {
+                        byte[] data = filter == ORIGINAL ? filtered : filter( raw, rowBytes, bytesPerPixel, height, filter );
+                        return deflate( data, strategy );
+                    }
+                } );
+            }
+        }
+
+        // every trial holds filtered copy of image data and its deflated output
+        long trialMemory = 2L * filtered.length + 1;
+        int parallel = ( int ) Math.max( 1, Math.min( trials.size(), TRIALS_MEMORY / trialMemory ) );
+
+        byte[] smallest = null;
+        try
+        {
+            for ( int from = 0; from < trials.size(); from += parallel )
+            {
+                List<Callable<byte[]>> batch = trials.subList( from, Math.min( trials.size(), from + parallel ) );
+                for ( Future<byte[]> trial : executor.invokeAll( batch ) )
+                {
+                    byte[] result = trial.get();
+                    if ( smallest == null || result.length < smallest.length )
+                    {
+                        smallest = result;
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while optimizing PNG", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IOException( "PNG compression has failed", e.getCause() );
+        }
+
+        return smallest;
+    }
+
+    /**
+     * Return number of channels of color type
+     *
+     * @param colorType PNG color type
+     * @return number of channels or 0 if color type is not valid
+     */
+    private static int getChannels( int colorType )
+    {
+        switch ( colorType )
+        {
+            case 0:
+            case 3:
+                return 1;
+            case 2:
+                return 3;
+            case 4:
+                return 2;
+            case 6:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Return size of filtered image data declared by image header - size of all rows of all passes including their
+     * filter type byte
+     *
+     * @param header content of <code>IHDR</code> chunk
+     * @return size of filtered image data or -1 if header is not valid
+     */
+    private static long getFilteredSize( ByteBuffer header )
+    {
+        long width = header.getInt() & 0xffffffffL;
+        long height = header.getInt() & 0xffffffffL;
+        int bitDepth = header.get();
+        int channels = getChannels( header.get() );
+        header.get(); // compression method
+        header.get(); // filter method
+        int interlace = header.get();
+
+        if ( width == 0 || height == 0 || channels == 0 || bitDepth <= 0 )
+        {
+            return -1;
+        }
+
+        long bitsPerPixel = ( long ) channels * bitDepth;
+        if ( interlace == 0 )
+        {
+            return ( ( width * bitsPerPixel + 7 ) / 8 + 1 ) * height;
+        }
+
+        long size = 0;
+        for ( int[] pass : ADAM7 )
+        {
+            long passWidth = ( width - pass[0] + pass[2] - 1 ) / pass[2];
+            long passHeight = ( height - pass[1] + pass[3] - 1 ) / pass[3];
+            if ( passWidth > 0 && passHeight > 0 )
+            {
+                size += ( ( passWidth * bitsPerPixel + 7 ) / 8 + 1 ) * passHeight;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Reverse filters of all rows
+     *
+     * @return unfiltered pixel data or <code>null</code> if row has unknown filter type
+     */
+    private static byte[] unfilter( byte[] filtered, int rowBytes, int bytesPerPixel, int height )
+    {
+        byte[] raw = new byte[rowBytes * height];
+
+        for ( int y = 0; y < height; y++ )
+        {
+            int in = y * ( rowBytes + 1 );
+            int type = filtered[in++];
+            int out = y * rowBytes;
+
+            for ( int x = 0; x < rowBytes; x++ )
+            {
+                int a = x >= bytesPerPixel ? raw[out + x - bytesPerPixel] & 0xff : 0;
+                int b = y > 0 ? raw[out + x - rowBytes] & 0xff : 0;
+                int c = x >= bytesPerPixel && y > 0 ? raw[out + x - rowBytes - bytesPerPixel] & 0xff : 0;
+
+                int predictor;
+                switch ( type )
+                {
+                    case 0:
+                        predictor = 0;
+                        break;
+                    case 1:
+                        predictor = a;
+                        break;
+                    case 2:
+                        predictor = b;
+                        break;
+                    case 3:
+                        predictor = ( a + b ) >>> 1;
+                        break;
+                    case 4:
+                        predictor = paeth( a, b, c );
+                        break;
+                    default:
+                        return null;
+                }
+
+                raw[out + x] = ( byte ) ( filtered[in + x] + predictor );
+            }
+        }
+
+        return raw;
+    }
+
+    /**
+     * Filter all rows with given filter type. Adaptive filter picks filter type with the smallest sum of absolute
+     * values of filtered bytes for every row.
+     */
+    private static byte[] filter( byte[] raw, int rowBytes, int bytesPerPixel, int height, int filter )
+    {
+        byte[] filtered = new byte[( rowBytes + 1 ) * height];
+        byte[] row = filter == ADAPTIVE ? new byte[rowBytes + 1] : null;
+
+        for ( int y = 0; y < height; y++ )
+        {
+            int out = y * ( rowBytes + 1 );
+
+            if ( filter != ADAPTIVE )
+            {
+                filterRow( raw, y, rowBytes, bytesPerPixel, filter, filtered, out );
+                continue;
+            }
+
+            long best = Long.MAX_VALUE;
+            for ( int type = 0; type < ADAPTIVE; type++ )
+            {
+                filterRow( raw, y, rowBytes, bytesPerPixel, type, row, 0 );
+
+                long sum = 0;
+                for ( int x = 1; x <= rowBytes; x++ )
+                {
+                    sum += Math.abs( row[x] );
+                }
+
+                if ( sum < best )
+                {
+                    best = sum;
+                    System.arraycopy( row, 0, filtered, out, row.length );
+                }
+            }
+        }
+
+        return filtered;
+    }
+
+    private static void filterRow( byte[] raw, int y, int rowBytes, int bytesPerPixel, int type, byte[] out, int offset )
+    {
+        int in = y * rowBytes;
+        out[offset] = ( byte ) type;
+
+        for ( int x = 0; x < rowBytes; x++ )
+        {
+            int a = x >= bytesPerPixel ? raw[in + x - bytesPerPixel] & 0xff : 0;
+            int b = y > 0 ? raw[in + x - rowBytes] & 0xff : 0;
+            int c = x >= bytesPerPixel && y > 0 ? raw[in + x - rowBytes - bytesPerPixel] & 0xff : 0;
+
+            int predictor;
+            switch ( type )
+            {
+                case 1:
+                    predictor = a;
+                    break;
+                case 2:
+                    predictor = b;
+                    break;
+                case 3:
+                    predictor = ( a + b ) >>> 1;
+                    break;
+                case 4:
+                    predictor = paeth( a, b, c );
+                    break;
+                default:
+                    predictor = 0;
+            }
+
+            out[offset + 1 + x] = ( byte ) ( raw[in + x] - predictor );
+        }
+    }
+
+    private static int paeth( int a, int b, int c )
+    {
+        int p = a + b - c;
+        int pa = Math.abs( p - a );
+        int pb = Math.abs( p - b );
+        int pc = Math.abs( p - c );
+
+        if ( pa <= pb && pa <= pc )
+        {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    private static byte[] deflate( byte[] data, int strategy )
+    {
+        Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+        try
+        {
+            deflater.setStrategy( strategy );
+            deflater.setInput( data );
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream( data.length / 2 + 64 );
+            byte[] buffer = new byte[64 * 1024];
+            while ( !deflater.finished() )
+            {
+                out.write( buffer, 0, deflater.deflate( buffer ) );
+            }
+
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate image data, inflating stops as soon as data exceed size declared by image header
+     *
+     * @param data    deflated image data
+     * @param maxSize size of filtered image data declared by image header
+     * @return filtered image data or <code>null</code> if image data are larger than declared
+     * @throws IOException if image data are corrupted
+     */
+    private static byte[] inflate( byte[] data, int maxSize ) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput( data );
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream( ( int ) Math.min( maxSize, data.length * 4L + 64 ) );
+            byte[] buffer = new byte[64 * 1024];
+            while ( !inflater.finished() )
+            {
+                int length = inflater.inflate( buffer, 0, Math.min( buffer.length, maxSize - out.size() + 1 ) );
+                if ( length == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                {
+                    throw new IOException( "Truncated PNG image data" );
+                }
+                out.write( buffer, 0, length );
+                if ( out.size() > maxSize )
+                {
+                    return null;
+                }
+            }
+
+            return out.toByteArray();
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "Corrupted PNG image data", e );
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private static class Chunk
+    {
+        private final String type;
+
+        private final byte[] data;
+
+        private Chunk( String type, byte[] data )
+        {
+            this.type = type;
+            this.data = data;
+        }
+
+        private void writeTo( ByteArrayOutputStream out ) throws IOException
+        {
+            byte[] typeBytes = type.getBytes( "US-ASCII" );
+
+            CRC32 crc = new CRC32();
+            crc.update( typeBytes );
+            crc.update( data );
+
+            ByteBuffer buffer = ByteBuffer.allocate( data.length + 12 );
+            buffer.putInt( data.length ).put( typeBytes ).put( data ).putInt( ( int ) crc.getValue() );
+            out.write( buffer.array() );
+        }
+    }
+}
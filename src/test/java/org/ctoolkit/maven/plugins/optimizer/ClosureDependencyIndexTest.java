@@ -0,0 +1,122 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class ClosureDependencyIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        root = folder.newFolder( "closure" );
+
+        write( "base.js", "var goog = goog || {};" );
+        write( "dom/dom.js", "goog.provide('goog.dom');\ngoog.require('goog.array');\ngoog.require('goog.string');" );
+        write( "array/array.js", "goog.provide( \"goog.array\" );" );
+        write( "string/string.js", "goog.provide('goog.string');\n\ngoog.require('goog.array');" );
+        write( "events/events.js", "goog.provide('goog.events');\ngoog.require('goog.events.Event');" );
+        write( "events/event.js", "goog.provide('goog.events.Event');\ngoog.require('goog.events');" );
+        write( "unused/unused.js", "goog.provide('goog.unused');" );
+        write( "dom/dom_test.js", "goog.provide('goog.domTest');" );
+        write( "deps.js", "goog.addDependency('unused/unused.js', ['goog.unused'], []);" );
+    }
+
+    @Test
+    public void testRequiredFilesAfterTheirDependencies() throws Exception
+    {
+        File source = write( "../app.js", "goog.require('goog.dom');\ngoog.require('goog.string');" );
+
+        assertEquals( paths( "base.js", "array/array.js", "string/string.js", "dom/dom.js" ), getDependencies( source ) );
+    }
+
+    @Test
+    public void testCycle() throws Exception
+    {
+        File source = write( "../app.js", "goog.require('goog.events.Event');" );
+
+        assertEquals( paths( "base.js", "events/events.js", "events/event.js" ), getDependencies( source ) );
+    }
+
+    @Test
+    public void testRequireForms() throws Exception
+    {
+        File source = write( "../app.js", "goog.provide('app');\n"
+                + "goog.require('app');\n"
+                + "(function() {\n"
+                + "    goog.require('goog.array');\n"
+                + "    var string = goog.require( 'goog.string' );\n"
+                + "})();\n"
+                + "// goog.require('goog.unused');\n"
+                + "/* goog.require('goog.unused');\n"
+                + " * goog.require('goog.dom'); */\n"
+                + "var text = \"goog.require('goog.dom')\";\n"
+                + "my.goog.require('goog.dom');\n" );
+
+        assertEquals( paths( "base.js", "array/array.js", "string/string.js" ), getDependencies( source ) );
+    }
+
+    private List<String> getDependencies( File source ) throws IOException
+    {
+        return ClosureDependencyIndex.getInstance( root.getAbsolutePath() ).getDependencies( Collections.singletonList( source.getAbsolutePath() ) );
+    }
+
+    private List<String> paths( String... names )
+    {
+        String[] paths = new String[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            paths[i] = new File( root, names[i] ).getAbsolutePath();
+        }
+
+        return Arrays.asList( paths );
+    }
+
+    private File write( String name, String content ) throws IOException
+    {
+        File file = new File( root, name ).getCanonicalFile();
+        Files.createParentDirs( file );
+        Files.write( content, file, Charsets.UTF_8 );
+
+        return file;
+    }
+}
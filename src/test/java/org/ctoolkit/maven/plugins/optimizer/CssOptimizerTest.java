@@ -0,0 +1,122 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Settings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class CssOptimizerTest
+{
+    private static final Pattern SHEET_URL = Pattern.compile( "url\\(\"?([^\")?]+\\.png)" );
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSpriteWithFingerprintToggledOnWarmCache() throws Exception
+    {
+        File baseDir = folder.getRoot();
+        File images = new File( baseDir, "images" );
+        assertTrue( images.mkdirs() );
+        for ( int i = 0; i < 2; i++ )
+        {
+            BufferedImage image = new BufferedImage( 16, 16, BufferedImage.TYPE_INT_ARGB );
+            image.setRGB( i, i, 0xff000000 | i * 100 );
+            ImageIO.write( image, "png", new File( images, "icon" + i + ".png" ) );
+        }
+
+        File css = new File( baseDir, "styles/icons.css" );
+        Files.createParentDirs( css );
+        Files.write( ".a{background:url(../images/icon0.png) no-repeat}\n"
+                + ".b{background:url(../images/icon1.png) no-repeat}\n", css, Charsets.UTF_8 );
+
+        File config = new File( baseDir, "css-config.xml" );
+        Files.write( "<groups><group name=\"icons.min.css\" sprite=\"true\"><css>/styles/icons.css</css></group></groups>",
+                config, Charsets.UTF_8 );
+
+        File output = new File( baseDir, "out" );
+        File cache = new File( baseDir, "cache" );
+
+        for ( boolean fingerprint : new boolean[]{false, true, false} )
+        {
+            // output is cleared while cache is kept, css is restored from cache and sheet written again
+            deleteDirectory( output );
+
+            ResourceOptimizerMojo mojo = new ResourceOptimizerMojo();
+            mojo.setCssPathToXml( config.getAbsolutePath() );
+            mojo.setCssOutputPath( output.getAbsolutePath() + File.separator );
+            mojo.setCacheDirectory( cache.getAbsolutePath() );
+            mojo.setFingerprint( fingerprint );
+            mojo.setSettings( new Settings() );
+
+            MavenProject project = new MavenProject();
+            project.setFile( new File( baseDir, "pom.xml" ) );
+            mojo.setProject( project );
+
+            mojo.execute();
+
+            int checked = 0;
+            File[] outputs = output.listFiles();
+            assertTrue( outputs != null );
+            for ( File file : outputs )
+            {
+                if ( file.getName().endsWith( ".css" ) )
+                {
+                    Matcher matcher = SHEET_URL.matcher( Files.toString( file, Charsets.UTF_8 ) );
+                    assertTrue( file.getName(), matcher.find() );
+                    assertTrue( "fingerprint " + fingerprint + ", missing sprite sheet " + matcher.group( 1 ),
+                            new File( output, matcher.group( 1 ) ).isFile() );
+                    checked++;
+                }
+            }
+            assertEquals( 1, checked );
+        }
+    }
+
+    private static void deleteDirectory( File directory )
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                assertTrue( file.delete() );
+            }
+        }
+    }
+}
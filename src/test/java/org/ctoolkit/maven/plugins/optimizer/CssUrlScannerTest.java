@@ -0,0 +1,96 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class CssUrlScannerTest
+{
+    @Test
+    public void testTwoUrlsOnOneLine()
+    {
+        String css = "a{background:url(a.png),url( 'b.png' ) no-repeat}";
+
+        CssUrlScanner scanner = new CssUrlScanner( css );
+
+        assertTrue( scanner.find() );
+        assertEquals( "a.png", scanner.value() );
+        assertEquals( "url(a.png)", css.substring( scanner.start(), scanner.end() ) );
+
+        assertTrue( scanner.find() );
+        assertEquals( "b.png", scanner.value() );
+        assertEquals( "url( 'b.png' )", css.substring( scanner.start(), scanner.end() ) );
+
+        assertFalse( scanner.find() );
+    }
+
+    @Test
+    public void testQuotedUrls()
+    {
+        assertEquals( Arrays.asList( "a b.png", "c(1).png", "d\\\".png", "e'.png" ),
+                scan( "a{x:url(\"a b.png\")}b{x:URL( \"c(1).png\" )}c{x:url(\"d\\\".png\")}d{x:url(\"e'.png\")}" ) );
+    }
+
+    @Test
+    public void testEscapedUrls()
+    {
+        // escaped parenthesis does not close unquoted url
+        assertEquals( Arrays.asList( "a\\).png", "b\\ c.png" ), scan( "a{x:url(a\\).png)}b{x:url( b\\ c.png )}" ) );
+    }
+
+    @Test
+    public void testSkippedTokens()
+    {
+        String css = "/* url(comment.png) */a{content:\"url(string.png)\";x:myurl(no.png);y:url(yes.png)}";
+
+        assertEquals( Arrays.asList( "yes.png" ), scan( css ) );
+    }
+
+    @Test
+    public void testUnclosedUrl()
+    {
+        assertEquals( Arrays.asList( "ok.png" ), scan( "a{x:url(ok.png)}b{x:url(\"broken.png" ) );
+    }
+
+    private static List<String> scan( String css )
+    {
+        List<String> values = new ArrayList<>();
+
+        CssUrlScanner scanner = new CssUrlScanner( css );
+        while ( scanner.find() )
+        {
+            values.add( scanner.value() );
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class FingerprinterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFileName()
+    {
+        Fingerprinter fingerprinter = new Fingerprinter( "manifest.properties", 3 );
+
+        String name = fingerprinter.getFileName( "style.min.css", "a{color:red}" );
+        assertTrue( name, name.matches( "style\\.min\\.[0-9a-f]{16}\\.css" ) );
+        assertEquals( name, fingerprinter.getFileName( "style.min.css", "a{color:red}" ) );
+        assertEquals( name, fingerprinter.getFileName( "style.min.css", "a{color:red}".getBytes( Charsets.UTF_8 ) ) );
+        assertNotEquals( name, fingerprinter.getFileName( "style.min.css", "a{color:blue}" ) );
+
+        assertTrue( fingerprinter.getFileName( "LICENSE", "text" ).matches( "LICENSE\\.[0-9a-f]{16}" ) );
+    }
+
+    @Test
+    public void testCleanup() throws Exception
+    {
+        File directory = folder.getRoot();
+        Fingerprinter fingerprinter = new Fingerprinter( "manifest.properties", 2 );
+
+        File oldest = write( directory, "style.min.0000000000000001.css", 1000 );
+        File oldestGz = write( directory, "style.min.0000000000000001.css.gz", 1000 );
+        File older = write( directory, "style.min.0000000000000002.css", 2000 );
+        File other = write( directory, "other.min.0000000000000003.css", 1000 );
+        File plain = write( directory, "style.min.css", 1000 );
+        File current = write( directory, "style.min.0000000000000004.css", 3000 );
+
+        fingerprinter.written( directory, "style.min.css", current.getName() );
+
+        assertTrue( current.isFile() );
+        assertTrue( older.isFile() );
+        assertFalse( oldest.exists() );
+        assertFalse( oldestGz.exists() );
+        assertTrue( other.isFile() );
+        assertTrue( plain.isFile() );
+    }
+
+    @Test
+    public void testManifest() throws Exception
+    {
+        File directory = folder.getRoot();
+        Files.write( "kept.js=kept.0000000000000001.js\nstyle.min.css=stale\n", new File( directory, "manifest.properties" ), Charsets.UTF_8 );
+
+        Fingerprinter fingerprinter = new Fingerprinter( "manifest.properties", 3 );
+        fingerprinter.written( directory, "style.min.css", "style.min.0000000000000002.css" );
+        fingerprinter.writeManifests();
+
+        Properties manifest = new Properties();
+        try ( InputStream in = new FileInputStream( new File( directory, "manifest.properties" ) ) )
+        {
+            manifest.load( in );
+        }
+
+        assertEquals( 2, manifest.size() );
+        assertEquals( "style.min.0000000000000002.css", manifest.getProperty( "style.min.css" ) );
+        assertEquals( "kept.0000000000000001.js", manifest.getProperty( "kept.js" ) );
+    }
+
+    private static File write( File directory, String name, long lastModified ) throws IOException
+    {
+        File file = new File( directory, name );
+        Files.write( name, file, Charsets.UTF_8 );
+        assertTrue( file.setLastModified( lastModified * 1000 ) );
+
+        return file;
+    }
+}
@@ -19,12 +19,17 @@
 
 package org.ctoolkit.maven.plugins.optimizer;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Settings;
 import org.junit.Test;
 
 import java.io.File;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
  */
@@ -37,7 +42,25 @@ public class ResourceOptimizerMojoTest
     {
         ResourceOptimizerMojo mojo = createMojo();
 
+        File css = new File( "target/styles/style.min.css" ).getAbsoluteFile();
+        File js = new File( "target/scripts/script.min.js" ).getAbsoluteFile();
+        css.delete();
+        js.delete();
+
         mojo.execute();
+
+        // groups failing inside the mojo are only logged, so outputs are checked
+        assertTrue( "css group has not been written", css.isFile() );
+        String cssContent = Files.toString( css, Charsets.UTF_8 );
+        assertTrue( cssContent.contains( "form{" ) );
+        assertTrue( cssContent.contains( "url(\"data:image/png;base64," ) );
+        assertTrue( cssContent.contains( "../not-valid-path/test.png" ) );
+        assertFalse( cssContent.contains( "gwt-logo.png" ) );
+
+        assertTrue( "js group has not been written", js.isFile() );
+        String jsContent = Files.toString( js, Charsets.UTF_8 );
+        assertTrue( jsContent.contains( "alert(" ) );
+        assertFalse( jsContent.contains( "goog.require" ) );
     }
 
     private ResourceOptimizerMojo createMojo()
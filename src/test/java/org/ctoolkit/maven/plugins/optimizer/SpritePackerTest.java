@@ -0,0 +1,146 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.optimizer;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class SpritePackerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPackWithinBounds() throws Exception
+    {
+        List<File> images = new ArrayList<>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            images.add( createImage( "image" + i + ".png", 100 + i * 3, 200 - i * 2, i ) );
+        }
+
+        List<SpritePacker.Sheet> sheets = SpritePacker.pack( images );
+
+        // images do not fit into one sheet
+        assertTrue( sheets.size() > 1 );
+
+        int packed = 0;
+        for ( SpritePacker.Sheet sheet : sheets )
+        {
+            BufferedImage rendered = ImageIO.read( new ByteArrayInputStream( sheet.render() ) );
+            assertTrue( rendered.getWidth() <= SpritePacker.MAX_SHEET_SIZE );
+            assertTrue( rendered.getHeight() <= SpritePacker.MAX_SHEET_SIZE );
+
+            List<Rectangle> placed = new ArrayList<>();
+            for ( SpritePacker.Sprite sprite : sheet.getSprites() )
+            {
+                Rectangle bounds = new Rectangle( sprite.getX(), sprite.getY(), sprite.getWidth(), sprite.getHeight() );
+                assertTrue( sprite.getFile().getName(), new Rectangle( rendered.getWidth(), rendered.getHeight() ).contains( bounds ) );
+                for ( Rectangle other : placed )
+                {
+                    assertFalse( sprite.getFile().getName(), bounds.intersects( other ) );
+                }
+                placed.add( bounds );
+
+                assertPixels( ImageIO.read( sprite.getFile() ), rendered, sprite );
+                packed++;
+            }
+        }
+
+        assertEquals( images.size(), packed );
+    }
+
+    @Test
+    public void testLargeAndInvalidImagesLeftOut() throws Exception
+    {
+        File small = createImage( "small.png", 16, 16, 1 );
+        File wide = createImage( "wide.png", 129, 10, 2 );
+        File high = createImage( "high.png", 10, 129, 3 );
+        File invalid = folder.newFile( "invalid.png" );
+        Files.write( "not an image", invalid, Charsets.UTF_8 );
+
+        List<File> images = new ArrayList<>();
+        images.add( small );
+        images.add( wide );
+        images.add( high );
+        images.add( invalid );
+
+        List<File> large = new ArrayList<>();
+        List<SpritePacker.Sheet> sheets = SpritePacker.pack( images, 128, large );
+
+        assertEquals( 1, sheets.size() );
+        assertEquals( 1, sheets.get( 0 ).getSprites().size() );
+        assertEquals( small, sheets.get( 0 ).getSprites().get( 0 ).getFile() );
+        assertEquals( 2, large.size() );
+        assertTrue( large.contains( wide ) );
+        assertTrue( large.contains( high ) );
+    }
+
+    private File createImage( String name, int width, int height, int seed ) throws IOException
+    {
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+        for ( int x = 0; x < width; x++ )
+        {
+            for ( int y = 0; y < height; y++ )
+            {
+                image.setRGB( x, y, 0xff000000 | ( seed * 37 % 256 ) << 16 | ( x % 256 ) << 8 | y % 256 );
+            }
+        }
+
+        File file = new File( folder.getRoot(), name );
+        ImageIO.write( image, "png", file );
+
+        return file;
+    }
+
+    private static void assertPixels( BufferedImage expected, BufferedImage sheet, SpritePacker.Sprite sprite )
+    {
+        for ( int x = 0; x < expected.getWidth(); x++ )
+        {
+            for ( int y = 0; y < expected.getHeight(); y++ )
+            {
+                if ( expected.getRGB( x, y ) != sheet.getRGB( sprite.getX() + x, sprite.getY() + y ) )
+                {
+                    throw new AssertionError( sprite.getFile().getName() + " differs at " + x + "," + y );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.util;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class JpegOptimizerTest
+{
+    @Test
+    public void testStripComment() throws Exception
+    {
+        BufferedImage image = new BufferedImage( 50, 30, BufferedImage.TYPE_INT_RGB );
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor( Color.ORANGE );
+        graphics.fillRect( 5, 5, 30, 15 );
+        graphics.dispose();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write( image, "jpg", encoded );
+        byte[] jpeg = encoded.toByteArray();
+
+        // comment segment right after SOI
+        byte[] comment = new byte[300];
+        Arrays.fill( comment, ( byte ) 'x' );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write( jpeg, 0, 2 );
+        out.write( new byte[]{( byte ) 0xff, ( byte ) 0xfe, ( byte ) ( ( comment.length + 2 ) >> 8 ), ( byte ) ( comment.length + 2 )} );
+        out.write( comment );
+        out.write( jpeg, 2, jpeg.length - 2 );
+
+        byte[] optimized = JpegOptimizer.optimize( out.toByteArray() );
+
+        assertNotNull( optimized );
+        assertEquals( jpeg.length, optimized.length );
+        PngOptimizerTest.assertSamePixels( jpeg, optimized );
+    }
+
+    @Test
+    public void testInvalidImage()
+    {
+        assertNull( JpegOptimizer.optimize( new byte[]{1, 2, 3, 4, 5} ) );
+    }
+}
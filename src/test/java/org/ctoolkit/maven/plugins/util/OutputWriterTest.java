@@ -0,0 +1,138 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.CoderMalfunctionError;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class OutputWriterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSkipUnchanged() throws Exception
+    {
+        File file = new File( folder.getRoot(), "script.min.js" );
+
+        assertTrue( OutputWriter.write( file, "var a=ž;" ) );
+        assertEquals( "var a=ž;", Files.toString( file, Charsets.UTF_8 ) );
+
+        assertTrue( file.setLastModified( 1000000 ) );
+        assertFalse( OutputWriter.write( file, "var a=ž;" ) );
+        assertEquals( 1000000, file.lastModified() );
+
+        assertTrue( OutputWriter.write( file, "var a=ſ;" ) );
+        assertEquals( "var a=ſ;", Files.toString( file, Charsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testSkipUnchangedBinary() throws Exception
+    {
+        File file = new File( folder.getRoot(), "sprite.png" );
+        byte[] content = {1, 2, 3};
+
+        assertTrue( OutputWriter.write( file, content ) );
+        assertFalse( OutputWriter.write( file, content.clone() ) );
+        assertTrue( OutputWriter.write( file, new byte[]{1, 2, 4} ) );
+        assertArrayEquals( new byte[]{1, 2, 4}, Files.toByteArray( file ) );
+    }
+
+    @Test
+    public void testFailedWriteKeepsFile() throws Exception
+    {
+        File file = new File( folder.getRoot(), "style.min.css" );
+        OutputWriter.write( file, "a{color:red}" );
+
+        final String content = Strings.repeat( "b{color:blue}", 20000 );
+        CharSequence failing = new CharSequence()
+        {
+            private int reads;
+
+            @Override
+            public int length()
+            {
+                return content.length();
+            }
+
+            @Override
+            public char charAt( int index )
+            {
+                // fail in the middle of writing, after several chunks have been written to temporary file
+                if ( ++reads > content.length() + content.length() / 2 )
+                {
+                    throw new IllegalStateException( "write failed" );
+                }
+                return content.charAt( index );
+            }
+
+            @Override
+            public CharSequence subSequence( int start, int end )
+            {
+                return content.subSequence( start, end );
+            }
+
+            @Override
+            public String toString()
+            {
+                return content;
+            }
+        };
+
+        try
+        {
+            OutputWriter.write( file, failing );
+            fail( "write should fail" );
+        }
+        catch ( IllegalStateException | CoderMalfunctionError e )
+        {
+            // expected, charset encoder wraps failure of its input
+        }
+
+        assertEquals( "a{color:red}", Files.toString( file, Charsets.UTF_8 ) );
+        assertEquals( 1, folder.getRoot().list().length );
+    }
+
+    @Test
+    public void testUtf8Length()
+    {
+        String text = "aé€😀\ud800";
+
+        assertEquals( text.getBytes( Charsets.UTF_8 ).length, OutputWriter.utf8Length( text ) );
+        assertEquals( 1 + 2 + 3 + 4 + 1, OutputWriter.utf8Length( text ) );
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.util;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class PngOptimizerTest
+{
+    private static final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+    @AfterClass
+    public static void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        int[] types = {
+                BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_BYTE_GRAY,
+                BufferedImage.TYPE_USHORT_GRAY,
+                BufferedImage.TYPE_BYTE_INDEXED,
+                BufferedImage.TYPE_BYTE_BINARY};
+
+        for ( int type : types )
+        {
+            byte[] png = encode( draw( type, 67, 41 ) );
+            byte[] optimized = PngOptimizer.optimize( png, executor );
+            if ( optimized != null )
+            {
+                assertTrue( optimized.length < png.length );
+                assertSamePixels( png, optimized );
+            }
+        }
+    }
+
+    @Test
+    public void testStripMetadata() throws Exception
+    {
+        byte[] png = encode( draw( BufferedImage.TYPE_INT_ARGB, 40, 40 ) );
+        byte[] text = "Comment\0Exported by image editor with a long comment".getBytes( "ISO-8859-1" );
+
+        // text chunk right after IHDR
+        ByteBuffer buffer = ByteBuffer.allocate( png.length + text.length + 12 );
+        buffer.put( png, 0, 33 );
+        writeChunk( buffer, "tEXt", text );
+        buffer.put( png, 33, png.length - 33 );
+
+        byte[] optimized = PngOptimizer.optimize( buffer.array(), executor );
+
+        assertNotNull( optimized );
+        assertTrue( optimized.length < png.length );
+        assertSamePixels( png, optimized );
+    }
+
+    @Test
+    public void testInvalidImage() throws Exception
+    {
+        assertNull( PngOptimizer.optimize( new byte[]{1, 2, 3}, executor ) );
+        assertNull( PngOptimizer.optimize( new byte[]{( byte ) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 0, 0}, executor ) );
+    }
+
+    @Test
+    public void testImageDataLargerThanDeclared() throws Exception
+    {
+        // 1x1 gray image with 1MB of image data
+        ByteBuffer header = ByteBuffer.allocate( 13 ).putInt( 1 ).putInt( 1 ).put( ( byte ) 8 ).put( ( byte ) 0 );
+
+        Deflater deflater = new Deflater();
+        deflater.setInput( new byte[1024 * 1024] );
+        deflater.finish();
+        byte[] compressed = new byte[64 * 1024];
+        int length = deflater.deflate( compressed );
+        deflater.end();
+
+        ByteBuffer png = ByteBuffer.allocate( 8 + 25 + length + 12 + 12 );
+        png.put( new byte[]{( byte ) 0x89, 'P', 'N', 'G', 13, 10, 26, 10} );
+        writeChunk( png, "IHDR", header.array() );
+        writeChunk( png, "IDAT", Arrays.copyOf( compressed, length ) );
+        writeChunk( png, "IEND", new byte[0] );
+
+        assertNull( PngOptimizer.optimize( png.array(), executor ) );
+    }
+
+    private static BufferedImage draw( int type, int width, int height )
+    {
+        BufferedImage image = new BufferedImage( width, height, type );
+
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+        graphics.setPaint( new GradientPaint( 0, 0, new Color( 255, 0, 0, 200 ), width, height, new Color( 0, 0, 255, 50 ) ) );
+        graphics.fillOval( 0, 0, width, height );
+        graphics.setColor( Color.GREEN );
+        graphics.drawString( "PNG", 5, height / 2 );
+        graphics.dispose();
+
+        return image;
+    }
+
+    private static byte[] encode( BufferedImage image ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write( image, "png", out );
+
+        return out.toByteArray();
+    }
+
+    private static void writeChunk( ByteBuffer buffer, String type, byte[] data ) throws IOException
+    {
+        byte[] typeBytes = type.getBytes( "US-ASCII" );
+
+        CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( data );
+
+        buffer.putInt( data.length ).put( typeBytes ).put( data ).putInt( ( int ) crc.getValue() );
+    }
+
+    static void assertSamePixels( byte[] expected, byte[] actual ) throws IOException
+    {
+        BufferedImage a = ImageIO.read( new ByteArrayInputStream( expected ) );
+        BufferedImage b = ImageIO.read( new ByteArrayInputStream( actual ) );
+
+        assertEquals( a.getWidth(), b.getWidth() );
+        assertEquals( a.getHeight(), b.getHeight() );
+        assertEquals( a.getColorModel().getPixelSize(), b.getColorModel().getPixelSize() );
+
+        for ( int x = 0; x < a.getWidth(); x++ )
+        {
+            for ( int y = 0; y < a.getHeight(); y++ )
+            {
+                if ( a.getRGB( x, y ) != b.getRGB( x, y ) )
+                {
+                    throw new AssertionError( "Pixel differs at " + x + "," + y );
+                }
+            }
+        }
+    }
+}
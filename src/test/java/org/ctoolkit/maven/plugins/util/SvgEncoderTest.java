@@ -0,0 +1,71 @@
+/*
+ * Comvai maven optimizer plugin
+ * Copyright (C) 2015 Comvai, s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package org.ctoolkit.maven.plugins.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:pohorelec@comvai.com">Jozef Pohorelec</a>
+ */
+public class SvgEncoderTest
+{
+    @Test
+    public void testMinify()
+    {
+        String svg = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE svg PUBLIC \"-//W3C//DTD SVG 1.1//EN\" \"http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd\">\n"
+                + "<!-- icon -->\n"
+                + "<svg xmlns=\"http://www.w3.org/2000/svg\"\n"
+                + "     viewBox=\"0 0 10 10\">\n"
+                + "    <path d=\"M0  0 L10 10\" />\n"
+                + "</svg>\n";
+
+        assertEquals( "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 10 10\"><path d=\"M0  0 L10 10\"/></svg>",
+                SvgEncoder.minify( svg ) );
+    }
+
+    @Test
+    public void testTextWhitespaceKept()
+    {
+        String svg = "<svg>\n"
+                + "  <text x=\"0\">  Hello\n    world  </text>\n"
+                + "  <text><tspan>a</tspan> <tspan>b</tspan></text>\n"
+                + "  <text/>\n"
+                + "  <textPath> </textPath>\n"
+                + "</svg>";
+
+        assertEquals( "<svg><text x=\"0\">  Hello\n    world  </text>"
+                        + "<text><tspan>a</tspan> <tspan>b</tspan></text>"
+                        + "<text/><textPath> </textPath></svg>",
+                SvgEncoder.minify( svg ) );
+    }
+
+    @Test
+    public void testEncode()
+    {
+        StringBuilder sb = new StringBuilder( "url(\"data:image/svg+xml," );
+        SvgEncoder.encode( "<svg fill=\"#f00\">ž 100%</svg>", sb );
+
+        assertEquals( "url(\"data:image/svg+xml,%3Csvg fill=%22%23f00%22%3E%C5%BE 100%25%3C/svg%3E", sb.toString() );
+    }
+}